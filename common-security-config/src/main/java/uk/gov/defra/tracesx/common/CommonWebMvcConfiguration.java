@@ -1,51 +1,88 @@
 package uk.gov.defra.tracesx.common;
 
-import static uk.gov.defra.tracesx.common.permissions.PermissionsCache.CACHE_KEY;
-
 import com.microsoft.applicationinsights.TelemetryClient;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import org.apache.hc.client5.http.config.ConnectionConfig;
 import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
-import org.springframework.cache.CacheManager;
-import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.concurrent.ConcurrentMapCache;
-import org.springframework.cache.support.SimpleCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.converter.StringHttpMessageConverter;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import uk.gov.defra.tracesx.common.permissions.PermissionsCache;
+import uk.gov.defra.tracesx.common.permissions.PermissionsCacheSettings;
 import uk.gov.defra.tracesx.common.security.PreAuthorizeChecker;
 import uk.gov.defra.tracesx.common.security.ServiceUrlPatterns;
+import uk.gov.defra.tracesx.common.security.jwks.JwksCacheSettings;
 import uk.gov.defra.tracesx.common.security.jwks.JwksConfiguration;
 
 @Configuration
-@EnableCaching
 @EnableConfigurationProperties
 public class CommonWebMvcConfiguration implements WebMvcConfigurer {
 
   public static final String PERMISSIONS_REST_TEMPLATE_QUALIFIER = "permissionsRestTemplate";
+  public static final String PERMISSIONS_CONNECTION_MANAGER_QUALIFIER =
+      "permissionsConnectionManager";
+  public static final String PERMISSIONS_ASYNC_HTTP_CLIENT_QUALIFIER = "permissionsAsyncHttpClient";
 
   private static final String DEFAULT_PERMISSIONS_TIMEOUT_MILLIS = "25000";
+  private static final String DEFAULT_MAX_CONNECTIONS_PER_ROUTE = "20";
+  private static final String DEFAULT_MAX_CONNECTIONS_TOTAL = "50";
+  private static final String DEFAULT_CONNECTION_TIME_TO_LIVE_MILLIS = "300000";
+  private static final String DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS = "2000";
+  private static final String DEFAULT_KEEP_ALIVE_MILLIS = "30000";
 
+  // how long a request waits to lease a connection from the pool
   @Value("${permissions.service.connectionTimeout:" + DEFAULT_PERMISSIONS_TIMEOUT_MILLIS + "}")
   private int permissionsServiceConnectionTimeout;
 
   @Value("${permissions.service.readTimeout:" + DEFAULT_PERMISSIONS_TIMEOUT_MILLIS + "}")
   private int permissionsServiceReadTimeout;
 
+  // how long opening a new socket to the permissions service may take
+  @Value("${permissions.service.socketConnectTimeoutMillis:"
+      + DEFAULT_PERMISSIONS_TIMEOUT_MILLIS + "}")
+  private int permissionsServiceSocketConnectTimeout;
+
+  @Value("${permissions.service.maxConnectionsPerRoute:" + DEFAULT_MAX_CONNECTIONS_PER_ROUTE + "}")
+  private int permissionsServiceMaxConnectionsPerRoute;
+
+  @Value("${permissions.service.maxConnectionsTotal:" + DEFAULT_MAX_CONNECTIONS_TOTAL + "}")
+  private int permissionsServiceMaxConnectionsTotal;
+
+  @Value("${permissions.service.connectionTimeToLiveMillis:"
+      + DEFAULT_CONNECTION_TIME_TO_LIVE_MILLIS + "}")
+  private long permissionsServiceConnectionTimeToLive;
+
+  @Value("${permissions.service.validateAfterInactivityMillis:"
+      + DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS + "}")
+  private long permissionsServiceValidateAfterInactivity;
+
+  @Value("${permissions.service.keepAliveMillis:" + DEFAULT_KEEP_ALIVE_MILLIS + "}")
+  private long permissionsServiceKeepAlive;
+
   @Value("${spring.security.jwt.jwks}")
   private String jwkUrl;
 
@@ -55,6 +92,38 @@ public class CommonWebMvcConfiguration implements WebMvcConfigurer {
   @Value("${spring.security.jwt.aud}")
   private String aud;
 
+  @Value("${spring.security.jwt.maxIndexedKeys:" + JwksCacheSettings.DEFAULT_MAX_INDEXED_KEYS + "}")
+  private int maxIndexedKeys;
+
+  @Value("${spring.security.jwt.unknownKeyCacheSeconds:"
+      + JwksCacheSettings.DEFAULT_UNKNOWN_KEY_CACHE_SECONDS + "}")
+  private int unknownKeyCacheSeconds;
+
+  @Value("${spring.security.jwt.minRefetchIntervalSeconds:"
+      + JwksCacheSettings.DEFAULT_MIN_REFETCH_INTERVAL_SECONDS + "}")
+  private int minRefetchIntervalSeconds;
+
+  @Value("${spring.security.jwt.keyLookupTimeoutMillis:"
+      + JwksCacheSettings.DEFAULT_KEY_LOOKUP_TIMEOUT_MILLIS + "}")
+  private long keyLookupTimeoutMillis;
+
+  @Value("${permissions.cache.type:" + PermissionsCacheSettings.CAFFEINE_CACHE_TYPE + "}")
+  private String permissionsCacheType = PermissionsCacheSettings.CAFFEINE_CACHE_TYPE;
+
+  @Value("${permissions.cache.maximumSize:" + PermissionsCacheSettings.DEFAULT_MAXIMUM_SIZE + "}")
+  private long permissionsCacheMaximumSize = PermissionsCacheSettings.DEFAULT_MAXIMUM_SIZE;
+
+  @Value("${permissions.cache.expireAfterWriteMillis:"
+      + PermissionsCacheSettings.DEFAULT_EXPIRE_AFTER_WRITE_MILLIS + "}")
+  private long permissionsCacheExpireAfterWriteMillis =
+      PermissionsCacheSettings.DEFAULT_EXPIRE_AFTER_WRITE_MILLIS;
+
+  @Value("${cache.maxStalenessMillis:" + PermissionsCache.DEFAULT_MAX_STALENESS_MILLIS + "}")
+  private long maxStalenessMillis = PermissionsCache.DEFAULT_MAX_STALENESS_MILLIS;
+
+  @Value("${permissions.cache.recordStats:true}")
+  private boolean permissionsCacheRecordStats = true;
+
   @Autowired
   private ServiceUrlPatterns serviceUrlPatterns;
 
@@ -68,7 +137,45 @@ public class CommonWebMvcConfiguration implements WebMvcConfigurer {
   @Bean
   @Qualifier(PERMISSIONS_REST_TEMPLATE_QUALIFIER)
   public RestTemplate permissionsRestTemplate() {
-    return createRestTemplate(permissionsServiceConnectionTimeout, permissionsServiceReadTimeout);
+    return createRestTemplate(permissionsConnectionManager());
+  }
+
+  /**
+   * The pool of connections to the permissions service. It is a bean so that its
+   * {@link PoolingHttpClientConnectionManager#getTotalStats() statistics} can be monitored.
+   */
+  @Bean(destroyMethod = "close")
+  @Qualifier(PERMISSIONS_CONNECTION_MANAGER_QUALIFIER)
+  public PoolingHttpClientConnectionManager permissionsConnectionManager() {
+    return PoolingHttpClientConnectionManagerBuilder.create()
+        .setMaxConnPerRoute(permissionsServiceMaxConnectionsPerRoute)
+        .setMaxConnTotal(permissionsServiceMaxConnectionsTotal)
+        .setDefaultConnectionConfig(permissionsConnectionConfig())
+        .build();
+  }
+
+  /**
+   * Non-blocking client for the permissions service, pooling its connections with the same
+   * settings as {@link #permissionsConnectionManager()}. It is only started when it is first used.
+   */
+  @Bean(destroyMethod = "close")
+  @Lazy
+  @Qualifier(PERMISSIONS_ASYNC_HTTP_CLIENT_QUALIFIER)
+  public CloseableHttpAsyncClient permissionsAsyncHttpClient() {
+    PoolingAsyncClientConnectionManager connectionManager =
+        PoolingAsyncClientConnectionManagerBuilder.create()
+            .setMaxConnPerRoute(permissionsServiceMaxConnectionsPerRoute)
+            .setMaxConnTotal(permissionsServiceMaxConnectionsTotal)
+            .setDefaultConnectionConfig(permissionsConnectionConfig())
+            .build();
+    CloseableHttpAsyncClient httpClient = HttpAsyncClients.custom()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(permissionsRequestConfig())
+        .evictExpiredConnections()
+        .evictIdleConnections(TimeValue.ofMilliseconds(permissionsServiceKeepAlive))
+        .build();
+    httpClient.start();
+    return httpClient;
   }
 
   @Bean
@@ -95,26 +202,65 @@ public class CommonWebMvcConfiguration implements WebMvcConfigurer {
     }
   }
 
+  @Bean
+  public JwksCacheSettings jwksCacheSettings() {
+    return JwksCacheSettings.builder()
+        .maxIndexedKeys(maxIndexedKeys)
+        .unknownKeyCacheDuration(Duration.ofSeconds(unknownKeyCacheSeconds))
+        .minRefetchInterval(Duration.ofSeconds(minRefetchIntervalSeconds))
+        .keyLookupTimeout(Duration.ofMillis(keyLookupTimeoutMillis))
+        .build();
+  }
+
   @Bean
   public TelemetryClient telemetryClient() {
     return new TelemetryClient();
   }
 
+  /**
+   * The settings of the store behind the permissions cache, chosen by
+   * {@code permissions.cache.type}. Entries are kept for at least {@code cache.maxStalenessMillis},
+   * so that the last known permissions are still there for as long as they may be used.
+   */
   @Bean
-  public CacheManager cacheManager() {
-    SimpleCacheManager cacheManager = new SimpleCacheManager();
-    cacheManager.setCaches(Collections.singletonList(new ConcurrentMapCache(CACHE_KEY)));
-    return cacheManager;
+  public PermissionsCacheSettings permissionsCacheSettings() {
+    PermissionsCacheSettings settings = PermissionsCacheSettings.builder()
+        .type(permissionsCacheType)
+        .maximumSize(permissionsCacheMaximumSize)
+        .expireAfterWrite(Duration.ofMillis(
+            Math.max(permissionsCacheExpireAfterWriteMillis, maxStalenessMillis)))
+        .recordStats(permissionsCacheRecordStats)
+        .build();
+    // fail at startup rather than on the first request
+    settings.newCache();
+    return settings;
   }
 
-  private RestTemplate createRestTemplate(int connectionTimeout, int readTimeout) {
-    RequestConfig requestConfig = RequestConfig.custom()
-            .setConnectionRequestTimeout(connectionTimeout, TimeUnit.MILLISECONDS)
-            .setResponseTimeout(readTimeout, TimeUnit.MILLISECONDS)
-            .build();
+  private ConnectionConfig permissionsConnectionConfig() {
+    return ConnectionConfig.custom()
+        .setConnectTimeout(permissionsServiceSocketConnectTimeout, TimeUnit.MILLISECONDS)
+        .setSocketTimeout(permissionsServiceReadTimeout, TimeUnit.MILLISECONDS)
+        .setTimeToLive(permissionsServiceConnectionTimeToLive, TimeUnit.MILLISECONDS)
+        .setValidateAfterInactivity(
+            permissionsServiceValidateAfterInactivity, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  private RequestConfig permissionsRequestConfig() {
+    return RequestConfig.custom()
+        .setConnectionRequestTimeout(permissionsServiceConnectionTimeout, TimeUnit.MILLISECONDS)
+        .setResponseTimeout(permissionsServiceReadTimeout, TimeUnit.MILLISECONDS)
+        // used when the permissions service does not send a Keep-Alive header
+        .setDefaultKeepAlive(permissionsServiceKeepAlive, TimeUnit.MILLISECONDS)
+        .build();
+  }
 
+  private RestTemplate createRestTemplate(PoolingHttpClientConnectionManager connectionManager) {
     CloseableHttpClient httpClient = HttpClients.custom()
-            .setDefaultRequestConfig(requestConfig).build();
+            .setConnectionManager(connectionManager)
+            .evictExpiredConnections()
+            .evictIdleConnections(TimeValue.ofMilliseconds(permissionsServiceKeepAlive))
+            .setDefaultRequestConfig(permissionsRequestConfig()).build();
 
     final HttpComponentsClientHttpRequestFactory clientHttpRequestFactory =
         new HttpComponentsClientHttpRequestFactory();
@@ -0,0 +1,67 @@
+package uk.gov.defra.tracesx.common.permissions;
+
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.RandomAccess;
+import org.springframework.security.core.GrantedAuthority;
+import uk.gov.defra.tracesx.common.permissions.PermissionRegistry.RegisteredPermission;
+
+/**
+ * Immutable list of the authorities granted to a user, backed by a bitset of the indices given to
+ * the permissions by a {@link PermissionRegistry}, so that whether an authority is granted is
+ * answered without comparing it with each granted authority.
+ */
+public final class GrantedPermissions extends AbstractList<GrantedAuthority>
+    implements RandomAccess {
+
+  private final PermissionRegistry registry;
+  private final BitSet bits;
+  private final GrantedAuthority[] authorities;
+
+  GrantedPermissions(PermissionRegistry registry, BitSet bits, GrantedAuthority[] authorities) {
+    this.registry = registry;
+    this.bits = bits;
+    this.authorities = authorities;
+  }
+
+  /**
+   * Returns whether the permission is granted.
+   */
+  public boolean hasAuthority(String permission) {
+    RegisteredPermission registered = registry.lookup(permission);
+    return registered != null && bits.get(registered.index());
+  }
+
+  /**
+   * Returns whether any of the permissions is granted.
+   */
+  public boolean hasAnyAuthority(String... permissions) {
+    for (String permission : permissions) {
+      if (hasAuthority(permission)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public GrantedAuthority get(int index) {
+    return authorities[index];
+  }
+
+  @Override
+  public int size() {
+    return authorities.length;
+  }
+
+  @Override
+  public boolean contains(Object object) {
+    if (!(object instanceof GrantedAuthority authority)) {
+      return false;
+    }
+    RegisteredPermission registered = registry.lookup(authority.getAuthority());
+    return registered != null
+        && bits.get(registered.index())
+        && registered.authority().equals(authority);
+  }
+}
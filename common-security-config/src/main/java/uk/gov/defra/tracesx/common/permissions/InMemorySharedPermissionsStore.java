@@ -0,0 +1,65 @@
+package uk.gov.defra.tracesx.common.permissions;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import uk.gov.defra.tracesx.common.permissions.PermissionsCache.CachedPermissions;
+
+/**
+ * {@link SharedPermissionsStore} held in memory, standing in for a distributed store when every
+ * "replica" runs in the same process, such as in tests.
+ */
+public class InMemorySharedPermissionsStore implements SharedPermissionsStore {
+
+  private final ConcurrentMap<String, CachedPermissions> permissionsByKey =
+      new ConcurrentHashMap<>();
+  // key -> when the refresh claimed by a replica expires
+  private final ConcurrentMap<String, Instant> refreshClaims = new ConcurrentHashMap<>();
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+  private final Clock clock;
+
+  public InMemorySharedPermissionsStore() {
+    this(Clock.systemUTC());
+  }
+
+  InMemorySharedPermissionsStore(Clock clock) {
+    this.clock = clock;
+  }
+
+  @Override
+  public CachedPermissions get(String key) {
+    return permissionsByKey.get(key);
+  }
+
+  @Override
+  public void put(String key, CachedPermissions permissions) {
+    permissionsByKey.put(key, permissions);
+    listeners.forEach(listener -> listener.updated(key, permissions));
+  }
+
+  @Override
+  public boolean claimRefresh(String key, Duration lease) {
+    Instant now = clock.instant();
+    Instant claim = now.plus(lease);
+    // the claim is kept only when no other claim is held, or the one held has expired
+    Instant granted = refreshClaims.merge(
+        key, claim, (held, requested) -> held.isAfter(now) ? held : requested);
+    return granted == claim;
+  }
+
+  @Override
+  public void clear() {
+    permissionsByKey.clear();
+    refreshClaims.clear();
+    listeners.forEach(Listener::cleared);
+  }
+
+  @Override
+  public void subscribe(Listener listener) {
+    listeners.add(listener);
+  }
+}
@@ -0,0 +1,50 @@
+package uk.gov.defra.tracesx.common.permissions;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Gives each permission a dense index, the first permission seen getting 0, so that a set of
+ * permissions can be held as a bitset. Indices are never reused: the registry grows with the
+ * number of distinct permissions defined by the permissions service.
+ */
+public class PermissionRegistry {
+
+  private final ConcurrentMap<String, RegisteredPermission> permissions =
+      new ConcurrentHashMap<>();
+  private final AtomicInteger nextIndex = new AtomicInteger();
+
+  /**
+   * Returns the permissions as granted authorities backed by a bitset, in the given order.
+   */
+  public GrantedPermissions grant(List<String> granted) {
+    BitSet bits = new BitSet();
+    GrantedAuthority[] authorities = new GrantedAuthority[granted.size()];
+    for (int i = 0; i < authorities.length; i++) {
+      RegisteredPermission permission = register(granted.get(i));
+      bits.set(permission.index());
+      authorities[i] = permission.authority();
+    }
+    return new GrantedPermissions(this, bits, authorities);
+  }
+
+  /**
+   * Returns the registered permission, or null when no user has been granted it.
+   */
+  RegisteredPermission lookup(String permission) {
+    return permission == null ? null : permissions.get(permission);
+  }
+
+  private RegisteredPermission register(String permission) {
+    return permissions.computeIfAbsent(permission, key ->
+        new RegisteredPermission(nextIndex.getAndIncrement(), new SimpleGrantedAuthority(key)));
+  }
+
+  record RegisteredPermission(int index, GrantedAuthority authority) {
+  }
+}
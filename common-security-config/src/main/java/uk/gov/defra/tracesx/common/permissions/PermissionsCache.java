@@ -1,45 +1,748 @@
 package uk.gov.defra.tracesx.common.permissions;
 
 import com.microsoft.applicationinsights.TelemetryClient;
+import java.io.Serializable;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.Cache;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import uk.gov.defra.tracesx.common.security.IdTokenUserDetails;
+import uk.gov.defra.tracesx.common.security.conversation.id.ConversationTaskDecorator;
 
+/**
+ * Caches the permissions of each role. When the permissions service is called with the service
+ * credential, an entry older than {@code cache.refreshDelay} is still returned while it is
+ * reloaded in the background, so the roles do not all miss at the same moment. Otherwise the entry
+ * is reloaded with the token of the user asking for it, as a background refresh would outlive the
+ * request of the user whose token it borrowed. An entry that has not been refreshed for twice
+ * that long is reloaded before it is returned. Concurrent loads of the same role share a single
+ * request to the permissions service.
+ *
+ * <p>Requests to the permissions service go through the {@link PermissionsCircuitBreaker}. While it
+ * rejects them, the last permissions loaded for a role are used if they were loaded less than
+ * {@code cache.maxStalenessMillis} ago; otherwise the request fails straight away.
+ *
+ * <p>When the application defines a {@link SharedPermissionsStore} it is a second tier behind the
+ * in-process cache: roles missing from, or due a refresh in, the in-process cache are looked up in
+ * the shared store before the permissions service is asked, and loaded permissions are put in the
+ * shared store for the other replicas. A replica only refreshes a role after claiming its refresh
+ * in the shared store, so that the replicas, which all see the same load time, do not all ask the
+ * permissions service at once.
+ *
+ * <p>Entries are keyed by role, or by role and the {@code permissions.cache.scope} of the user when
+ * the permissions service is called with the user's token rather than the service credential.
+ */
 @Component
 public class PermissionsCache {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(PermissionsCache.class);
   private static final String CACHE_REFRESH_EVENT_NAME_TEMPLATE = "%sPermissionsCacheRefreshed";
+  private static final String ROLE_REFRESH_EVENT_NAME_TEMPLATE = "%sPermissionsRoleRefreshed";
   public static final String CACHE_KEY = "permissions";
+  public static final String PERMISSIONS_EXECUTOR_QUALIFIER = "permissionsExecutor";
+  static final long DEFAULT_REFRESH_DELAY_MILLIS = 300_000;
+  static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+  static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 10_000;
+  public static final long DEFAULT_MAX_STALENESS_MILLIS = 3_600_000;
+  private static final int MAX_THREADS = 16;
+  private static final int MAX_MEMOISED_ROLE_SETS = 1_000;
 
   private final PermissionsClient permissionsClient;
+  private final PermissionsCircuitBreaker circuitBreaker;
   private final TelemetryClient telemetryClient;
+  private final Cache cache;
+  private final SharedPermissionsStore sharedStore;
+  private final Executor executor;
+  // a pool of its own, so that requests for missing roles never queue behind background refreshes
+  private final Executor fanOutExecutor;
+  private final Clock clock;
+  // loads in progress, so that concurrent misses of the same role share a single request
+  private final ConcurrentMap<String, CompletableFuture<CachedPermissions>> loads =
+      new ConcurrentHashMap<>();
+  // the authorities of each sorted set of cache keys, recomputed once the permissions of one of
+  // those keys change
+  private final ConcurrentMap<List<String>, MemoisedAuthorities> authoritiesByRoles =
+      new ConcurrentHashMap<>();
+  private final PermissionRegistry permissionRegistry = new PermissionRegistry();
+  // bumped for a cache key only when the permissions cached under it change
+  private final ConcurrentMap<String, Long> versions = new ConcurrentHashMap<>();
 
   @Value("${info.app.name}")
   private String appName;
 
+  @Value("${cache.refreshDelay:" + DEFAULT_REFRESH_DELAY_MILLIS + "}")
+  private long refreshDelayMillis = DEFAULT_REFRESH_DELAY_MILLIS;
+
+  @Value("${permissions.service.maxConcurrentRequests:" + DEFAULT_MAX_CONCURRENT_REQUESTS + "}")
+  private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+
+  @Value("${permissions.service.requestTimeoutMillis:" + DEFAULT_REQUEST_TIMEOUT_MILLIS + "}")
+  private long requestTimeoutMillis = DEFAULT_REQUEST_TIMEOUT_MILLIS;
+
+  @Value("${cache.maxStalenessMillis:" + DEFAULT_MAX_STALENESS_MILLIS + "}")
+  private long maxStalenessMillis = DEFAULT_MAX_STALENESS_MILLIS;
+
+  // unless set, scoped by issuer when the permissions service is called with the token of the user
+  @Value("${permissions.cache.scope:#{@environment.getProperty('permissions.service.user', '')"
+      + ".isEmpty() ? 'ISSUER' : 'NONE'}}")
+  private PermissionsCacheScope scope = PermissionsCacheScope.NONE;
+
+  /**
+   * Creates the cache used by the application. Entries are refreshed on the executor qualified
+   * {@value #PERMISSIONS_EXECUTOR_QUALIFIER} when the application defines one, otherwise on a
+   * small pool of daemon threads. Roles missing from the cache are fetched concurrently on a
+   * separate pool, whose caller fetches a group itself when every thread is busy. The
+   * {@link SharedPermissionsStore} is used when the application defines one. The in-process store
+   * is built from the given settings and is private to this cache.
+   */
   @Autowired
-  PermissionsCache(PermissionsClient permissionsClient, TelemetryClient telemetryClient) {
+  PermissionsCache(
+      PermissionsClient permissionsClient,
+      PermissionsCircuitBreaker circuitBreaker,
+      TelemetryClient telemetryClient,
+      PermissionsCacheSettings settings,
+      ObjectProvider<SharedPermissionsStore> sharedStore,
+      @Qualifier(PERMISSIONS_EXECUTOR_QUALIFIER) ObjectProvider<Executor> executor) {
+    this(permissionsClient, circuitBreaker, telemetryClient, settings.newCache(),
+        sharedStore.getIfAvailable(),
+        executor.getIfAvailable(PermissionsCache::defaultExecutor),
+        defaultFanOutExecutor(),
+        Clock.systemUTC());
+  }
+
+  PermissionsCache(
+      PermissionsClient permissionsClient,
+      PermissionsCircuitBreaker circuitBreaker,
+      TelemetryClient telemetryClient,
+      Cache cache,
+      Executor executor,
+      Clock clock) {
+    this(permissionsClient, circuitBreaker, telemetryClient, cache, null, executor, clock);
+  }
+
+  PermissionsCache(
+      PermissionsClient permissionsClient,
+      PermissionsCircuitBreaker circuitBreaker,
+      TelemetryClient telemetryClient,
+      Cache cache,
+      SharedPermissionsStore sharedStore,
+      Executor executor,
+      Clock clock) {
+    this(permissionsClient, circuitBreaker, telemetryClient, cache, sharedStore, executor,
+        executor, clock);
+  }
+
+  PermissionsCache(
+      PermissionsClient permissionsClient,
+      PermissionsCircuitBreaker circuitBreaker,
+      TelemetryClient telemetryClient,
+      Cache cache,
+      SharedPermissionsStore sharedStore,
+      Executor executor,
+      Executor fanOutExecutor,
+      Clock clock) {
     this.permissionsClient = permissionsClient;
+    this.circuitBreaker = circuitBreaker;
     this.telemetryClient = telemetryClient;
+    this.cache = cache;
+    this.sharedStore = sharedStore;
+    // requests made on its threads carry the conversation of the request that needed them
+    this.executor = ConversationTaskDecorator.wrap(executor);
+    this.fanOutExecutor = ConversationTaskDecorator.wrap(fanOutExecutor);
+    this.clock = clock;
+    if (sharedStore != null) {
+      sharedStore.subscribe(new SharedStoreListener());
+    }
+  }
+
+  /**
+   * Warns when the permissions of a role are shared between all users although they are fetched
+   * with the token of a user, so may depend on who the user is.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void warnIfSharedBetweenUsers() {
+    if (scope == PermissionsCacheScope.NONE && !permissionsClient.usesServiceCredential()) {
+      LOGGER.warn("The permissions service is called with the token of the user but "
+          + "permissions.cache.scope is NONE, so the permissions cached for a role are shared with "
+          + "every user with that role. Set permissions.service.user or permissions.cache.scope");
+    }
   }
 
-  @Cacheable(value = CACHE_KEY, key = "#role")
   public List<String> permissionsList(final String role, final String authorisationToken) {
-    return permissionsClient.permissionsList(role, authorisationToken);
+    String key = scope.cacheKey(role);
+    CachedPermissions cached = usableCachedPermissions(key, role, authorisationToken);
+    if (cached != null) {
+      return cached.permissions();
+    }
+    return load(key, role, authorisationToken).permissions();
+  }
+
+  /**
+   * Returns the permissions of a role without blocking the calling thread while they are fetched.
+   * A role missing from the cache is requested with the non-blocking permissions client, and the
+   * request is shared with any other load of the same role in progress.
+   */
+  public CompletableFuture<List<String>> permissionsListAsync(
+      final String role, final String authorisationToken) {
+    return permissionsListAsync(scope.cacheKey(role), role, authorisationToken);
   }
 
-  @CacheEvict(value = CACHE_KEY, allEntries = true)
-  @Scheduled(fixedDelayString = "${cache.refreshDelay}")
+  private CompletableFuture<List<String>> permissionsListAsync(
+      String key, String role, String authorisationToken) {
+    CachedPermissions cached = usableCachedPermissions(key, role, authorisationToken);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached.permissions());
+    }
+    CompletableFuture<CachedPermissions> load = new CompletableFuture<>();
+    CompletableFuture<CachedPermissions> inProgress = loads.putIfAbsent(key, load);
+    if (inProgress != null) {
+      return inProgress.thenApply(CachedPermissions::permissions);
+    }
+    circuitBreaker
+        .callAsync(() -> permissionsClient.permissionsListAsync(role, authorisationToken))
+        .whenComplete((permissions, exception) -> {
+          loads.remove(key, load);
+          if (exception == null) {
+            CachedPermissions loaded = new CachedPermissions(permissions, clock.instant());
+            store(key, loaded);
+            load.complete(loaded);
+            return;
+          }
+          CachedPermissions lastKnownGood = lastKnownGood(key, role, exception);
+          if (lastKnownGood != null) {
+            load.complete(lastKnownGood);
+          } else {
+            load.completeExceptionally(exception);
+          }
+        });
+    return load.thenApply(CachedPermissions::permissions);
+  }
+
+  /**
+   * Returns the permissions of each role, keyed by role in the order the roles are given. Only the
+   * roles missing from the cache are fetched, with a single request when the permissions service
+   * supports it.
+   */
+  public Map<String, List<String>> permissionsLists(
+      final Collection<String> roles, final String authorisationToken) {
+    return permissionsLists(roles, authorisationToken, scope::cacheKey);
+  }
+
+  private Map<String, List<String>> permissionsLists(
+      Collection<String> roles, String authorisationToken, Function<String, String> cacheKey) {
+    Map<String, CompletableFuture<CachedPermissions>> pending = new LinkedHashMap<>();
+    Map<String, CompletableFuture<CachedPermissions>> owned = new LinkedHashMap<>();
+    Map<String, String> keys = new HashMap<>();
+    for (String role : new LinkedHashSet<>(roles)) {
+      String key = cacheKey.apply(role);
+      CachedPermissions cached = usableCachedPermissions(key, role, authorisationToken);
+      if (cached != null) {
+        pending.put(role, CompletableFuture.completedFuture(cached));
+        continue;
+      }
+      CompletableFuture<CachedPermissions> load = new CompletableFuture<>();
+      CompletableFuture<CachedPermissions> inProgress = loads.putIfAbsent(key, load);
+      if (inProgress != null) {
+        pending.put(role, inProgress);
+      } else {
+        pending.put(role, load);
+        owned.put(role, load);
+        keys.put(role, key);
+      }
+    }
+    if (!owned.isEmpty()) {
+      fetchAll(owned, keys, authorisationToken);
+    }
+
+    Map<String, List<String>> permissionsByRole = new LinkedHashMap<>();
+    pending.forEach((role, load) -> permissionsByRole.put(role, await(load).permissions()));
+    return permissionsByRole;
+  }
+
+  /**
+   * Returns the distinct permissions of the roles of the user as {@link GrantedPermissions}. Users
+   * with the same set of roles share one immutable list, built again only after the cached
+   * permissions of one of those roles change. The scope of the cached permissions is taken from
+   * the given user rather than the security context, which may not hold them yet.
+   */
+  public List<GrantedAuthority> grantedAuthorities(
+      final IdTokenUserDetails userDetails, final Collection<String> roles,
+      final String authorisationToken) {
+    Function<String, String> cacheKey = role -> scope.cacheKey(role, userDetails);
+    List<String> roleSet = roleSet(roles, cacheKey);
+    // taken before loading, so that permissions changed meanwhile are not memoised as current
+    List<Long> currentVersions = versionsOf(roleSet);
+    Map<String, List<String>> permissionsByRole =
+        permissionsLists(roles, authorisationToken, cacheKey);
+    return memoisedAuthorities(permissionsByRole, roleSet, currentVersions);
+  }
+
+  /**
+   * Returns the distinct permissions of the roles of the user as {@link GrantedPermissions}
+   * without blocking the calling thread while roles missing from the cache are fetched.
+   */
+  public CompletableFuture<List<GrantedAuthority>> grantedAuthoritiesAsync(
+      final IdTokenUserDetails userDetails, final Collection<String> roles,
+      final String authorisationToken) {
+    Function<String, String> cacheKey = role -> scope.cacheKey(role, userDetails);
+    List<String> roleSet = roleSet(roles, cacheKey);
+    List<Long> currentVersions = versionsOf(roleSet);
+    Map<String, CompletableFuture<List<String>>> pending = new LinkedHashMap<>();
+    for (String role : new LinkedHashSet<>(roles)) {
+      pending.put(role, permissionsListAsync(cacheKey.apply(role), role, authorisationToken));
+    }
+    return CompletableFuture.allOf(pending.values().toArray(CompletableFuture[]::new))
+        .thenApply(loaded -> {
+          Map<String, List<String>> permissionsByRole = new LinkedHashMap<>();
+          pending.forEach((role, load) -> permissionsByRole.put(role, load.join()));
+          return memoisedAuthorities(permissionsByRole, roleSet, currentVersions);
+        });
+  }
+
+  /**
+   * Returns the sorted, distinct cache keys of the roles, which identify the memoised authorities
+   * of every user with these roles.
+   */
+  private static List<String> roleSet(Collection<String> roles, Function<String, String> cacheKey) {
+    return roles.stream().distinct().sorted().map(cacheKey).toList();
+  }
+
+  private List<Long> versionsOf(List<String> keys) {
+    return keys.stream().map(key -> versions.getOrDefault(key, 0L)).toList();
+  }
+
+  private List<GrantedAuthority> memoisedAuthorities(
+      Map<String, List<String>> permissionsByRole, List<String> roleSet,
+      List<Long> currentVersions) {
+    MemoisedAuthorities memoised = authoritiesByRoles.get(roleSet);
+    if (memoised != null && memoised.versions().equals(currentVersions)) {
+      return memoised.authorities();
+    }
+    List<GrantedAuthority> authorities = permissionRegistry.grant(permissionsByRole.keySet()
+        .stream()
+        .sorted()
+        .map(permissionsByRole::get)
+        .flatMap(List::stream)
+        .distinct()
+        .toList());
+    if (authoritiesByRoles.size() >= MAX_MEMOISED_ROLE_SETS) {
+      authoritiesByRoles.clear();
+    }
+    authoritiesByRoles.put(roleSet, new MemoisedAuthorities(currentVersions, authorities));
+    return authorities;
+  }
+
+  /**
+   * Returns the store behind this cache, a Caffeine cache recording hit, miss and eviction counts
+   * unless {@code permissions.cache.type} or {@code permissions.cache.recordStats} say otherwise.
+   */
+  public Object getNativeCache() {
+    return cache.getNativeCache();
+  }
+
+  /**
+   * Removes every cached role, so that the next request for each role loads its permissions.
+   */
   public void clearCache() {
-    telemetryClient.trackEvent(cacheRefreshEventName());
+    cache.clear();
+    authoritiesByRoles.clear();
+    if (sharedStore != null) {
+      try {
+        sharedStore.clear();
+      } catch (RuntimeException exception) {
+        LOGGER.warn("Unable to clear the shared permissions store", exception);
+      }
+    }
+    telemetryClient.trackEvent(eventName(CACHE_REFRESH_EVENT_NAME_TEMPLATE));
   }
 
-  private String cacheRefreshEventName() {
+  /**
+   * Returns the cached permissions of a role, starting a background refresh when they are due one,
+   * or null when the role has to be loaded before it can be used. Permissions due a refresh have to
+   * be loaded when the permissions service is called with the token of the user.
+   */
+  private CachedPermissions usableCachedPermissions(
+      String key, String role, String authorisationToken) {
+    Duration refreshDelay = Duration.ofMillis(refreshDelayMillis);
+    CachedPermissions cached = cache.get(key, CachedPermissions.class);
+    if (sharedStore != null && (cached == null || age(cached).compareTo(refreshDelay) >= 0)) {
+      cached = newerSharedPermissions(key, cached);
+    }
+    if (cached == null) {
+      return null;
+    }
+    Duration age = age(cached);
+    if (age.compareTo(refreshDelay.multipliedBy(2)) >= 0) {
+      return null;
+    }
+    if (age.compareTo(refreshDelay) >= 0) {
+      if (!permissionsClient.usesServiceCredential()) {
+        return null;
+      }
+      refreshInBackground(key, role);
+    }
+    return cached;
+  }
+
+  private Duration age(CachedPermissions cached) {
+    return Duration.between(cached.loadedAt(), clock.instant());
+  }
+
+  /**
+   * Returns the permissions of a role held by the shared store, copying them into the in-process
+   * cache, when they were loaded after the given ones.
+   */
+  private CachedPermissions newerSharedPermissions(String key, CachedPermissions cached) {
+    CachedPermissions shared;
+    try {
+      shared = sharedStore.get(key);
+    } catch (RuntimeException exception) {
+      LOGGER.warn("Unable to read {} from the shared permissions store", key, exception);
+      return cached;
+    }
+    if (shared == null || cached != null && !shared.loadedAt().isAfter(cached.loadedAt())) {
+      return cached;
+    }
+    put(key, shared);
+    return shared;
+  }
+
+  private void store(String key, CachedPermissions loaded) {
+    put(key, loaded);
+    if (sharedStore != null) {
+      try {
+        sharedStore.put(key, loaded);
+      } catch (RuntimeException exception) {
+        LOGGER.warn("Unable to write {} to the shared permissions store", key, exception);
+      }
+    }
+  }
+
+  /**
+   * Caches the permissions of a key, invalidating the memoised authorities that include it only
+   * when the permissions differ from those cached before, so that a refresh returning the same
+   * permissions leaves them in place. A key no longer cached counts as changed.
+   */
+  private synchronized void put(String key, CachedPermissions permissions) {
+    CachedPermissions previous = cache.get(key, CachedPermissions.class);
+    cache.put(key, permissions);
+    if (previous == null || !previous.permissions().equals(permissions.permissions())) {
+      versions.merge(key, 1L, Long::sum);
+    }
+  }
+
+  private CachedPermissions load(String key, String role, String authorisationToken) {
+    CompletableFuture<CachedPermissions> load = new CompletableFuture<>();
+    CompletableFuture<CachedPermissions> inProgress = loads.putIfAbsent(key, load);
+    if (inProgress != null) {
+      return await(inProgress);
+    }
+    return fetch(key, role, authorisationToken, load, true);
+  }
+
+  /**
+   * Refreshes a role with the service credential, which the permissions client uses in place of a
+   * token, so that no token of a user is kept beyond the request it came with.
+   */
+  private void refreshInBackground(String key, String role) {
+    CompletableFuture<CachedPermissions> refresh = new CompletableFuture<>();
+    if (loads.putIfAbsent(key, refresh) != null) {
+      return;
+    }
+    try {
+      executor.execute(() -> {
+        try {
+          if (!claimRefresh(key)) {
+            skipRefresh(key, role, refresh);
+            return;
+          }
+          fetch(key, role, null, refresh, false);
+          telemetryClient.trackEvent(eventName(ROLE_REFRESH_EVENT_NAME_TEMPLATE));
+        } catch (RuntimeException exception) {
+          LOGGER.warn("Unable to refresh the permissions of role {}, keeping the cached ones",
+              role, exception);
+        }
+      });
+    } catch (RejectedExecutionException exception) {
+      LOGGER.warn("Unable to schedule a refresh of the permissions of role {}", role, exception);
+      loads.remove(key, refresh);
+      refresh.completeExceptionally(exception);
+    }
+  }
+
+  /**
+   * Whether this replica should refresh a role, which it always should without a shared store or
+   * when the shared store cannot be reached.
+   */
+  private boolean claimRefresh(String key) {
+    if (sharedStore == null) {
+      return true;
+    }
+    try {
+      return sharedStore.claimRefresh(key, Duration.ofMillis(requestTimeoutMillis));
+    } catch (RuntimeException exception) {
+      LOGGER.warn("Unable to claim the refresh of {} in the shared permissions store", key,
+          exception);
+      return true;
+    }
+  }
+
+  /**
+   * Completes a refresh claimed by another replica with the permissions already cached, which that
+   * replica replaces once it has refreshed them. A role no longer cached is fetched after all.
+   */
+  private void skipRefresh(String key, String role, CompletableFuture<CachedPermissions> refresh) {
+    LOGGER.debug("The refresh of {} is claimed by another replica", key);
+    CachedPermissions cached = newerSharedPermissions(key, cache.get(key, CachedPermissions.class));
+    if (cached == null) {
+      fetch(key, role, null, refresh, false);
+      return;
+    }
+    loads.remove(key, refresh);
+    refresh.complete(cached);
+  }
+
+  /**
+   * Fetches the permissions of a role and completes the load with them. When the permissions
+   * service is unavailable the load is completed with the last known good permissions, so that
+   * requests waiting on a background refresh are served them too, but only a foreground fetch
+   * returns them; a background refresh fails and keeps the cached permissions.
+   */
+  private CachedPermissions fetch(
+      String key,
+      String role,
+      String authorisationToken,
+      CompletableFuture<CachedPermissions> load,
+      boolean foreground) {
+    try {
+      CachedPermissions loaded = new CachedPermissions(
+          circuitBreaker.call(() -> permissionsClient.permissionsList(role, authorisationToken)),
+          clock.instant());
+      store(key, loaded);
+      load.complete(loaded);
+      return loaded;
+    } catch (RuntimeException exception) {
+      CachedPermissions lastKnownGood = lastKnownGood(key, role, exception);
+      if (lastKnownGood != null) {
+        load.complete(lastKnownGood);
+        if (foreground) {
+          return lastKnownGood;
+        }
+      } else {
+        load.completeExceptionally(exception);
+      }
+      throw exception;
+    } finally {
+      loads.remove(key, load);
+    }
+  }
+
+  private void fetchAll(
+      Map<String, CompletableFuture<CachedPermissions>> owned,
+      Map<String, String> keys,
+      String authorisationToken) {
+    try {
+      List<String> roles = List.copyOf(owned.keySet());
+      Map<String, List<String>> fetched =
+          roles.size() > 1 && maxConcurrentRequests > 1 && !permissionsClient.isBulkAvailable()
+              ? fetchConcurrently(roles, keys, authorisationToken)
+              : circuitBreaker.call(
+                  () -> permissionsClient.permissionsLists(roles, authorisationToken));
+      Instant loadedAt = clock.instant();
+      owned.forEach((role, load) -> {
+        CachedPermissions loaded =
+            new CachedPermissions(fetched.getOrDefault(role, List.of()), loadedAt);
+        store(keys.get(role), loaded);
+        load.complete(loaded);
+      });
+    } catch (RuntimeException exception) {
+      owned.forEach((role, load) -> {
+        CachedPermissions lastKnownGood = lastKnownGood(keys.get(role), role, exception);
+        if (lastKnownGood != null) {
+          load.complete(lastKnownGood);
+        } else {
+          load.completeExceptionally(exception);
+        }
+      });
+    } finally {
+      owned.forEach((role, load) -> loads.remove(keys.get(role), load));
+    }
+  }
+
+  /**
+   * Fetches the roles with up to {@code permissions.service.maxConcurrentRequests} requests in
+   * flight, giving up once {@code permissions.service.requestTimeoutMillis} has passed. Requests
+   * still in flight then are left to finish, and the permissions they return are cached.
+   */
+  private Map<String, List<String>> fetchConcurrently(
+      List<String> roles, Map<String, String> keys, String authorisationToken) {
+    int fanOut = Math.min(roles.size(), maxConcurrentRequests);
+    List<List<String>> groups = new ArrayList<>(fanOut);
+    for (int i = 0; i < fanOut; i++) {
+      groups.add(new ArrayList<>());
+    }
+    for (int i = 0; i < roles.size(); i++) {
+      groups.get(i % fanOut).add(roles.get(i));
+    }
+    List<CompletableFuture<Map<String, List<String>>>> fetches = groups.stream()
+        .map(group -> CompletableFuture.supplyAsync(
+            () -> circuitBreaker.call(
+                () -> permissionsClient.permissionsLists(group, authorisationToken)),
+            fanOutExecutor))
+        .toList();
+    try {
+      CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[0]))
+          .get(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException exception) {
+      fetches.forEach(fetch -> fetch.thenAccept(fetched -> storeLate(fetched, keys)));
+      throw new ResourceAccessException("Timed out getting the permissions of roles " + roles);
+    } catch (ExecutionException exception) {
+      if (exception.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw new IllegalStateException(exception.getCause());
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new ResourceAccessException("Interrupted getting the permissions of roles " + roles);
+    }
+
+    // merged in the order of the roles, whichever request completed first
+    Map<String, List<String>> fetched = new HashMap<>();
+    fetches.forEach(fetch -> fetched.putAll(fetch.join()));
+    Map<String, List<String>> permissionsByRole = new LinkedHashMap<>();
+    roles.forEach(role -> permissionsByRole.put(role, fetched.getOrDefault(role, List.of())));
+    return permissionsByRole;
+  }
+
+  /**
+   * Caches the permissions of a request that completed after its caller gave up on it, so the next
+   * request for the roles does not have to fetch them again.
+   */
+  private void storeLate(Map<String, List<String>> fetched, Map<String, String> keys) {
+    Instant loadedAt = clock.instant();
+    fetched.forEach((role, permissions) -> {
+      String key = keys.get(role);
+      if (key != null && permissions != null) {
+        store(key, new CachedPermissions(permissions, loadedAt));
+      }
+    });
+  }
+
+  /**
+   * Returns the permissions last loaded for a role when the permissions service was not asked for
+   * them because it is failing, provided they are recent enough to be trusted.
+   */
+  private CachedPermissions lastKnownGood(String key, String role, Throwable exception) {
+    Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+    if (!(cause instanceof PermissionsServiceUnavailableException)) {
+      return null;
+    }
+    CachedPermissions cached = cache.get(key, CachedPermissions.class);
+    if (sharedStore != null) {
+      cached = newerSharedPermissions(key, cached);
+    }
+    if (cached == null || Duration.between(cached.loadedAt(), clock.instant())
+        .compareTo(Duration.ofMillis(maxStalenessMillis)) >= 0) {
+      return null;
+    }
+    LOGGER.warn("{}, using the permissions of role {} loaded at {}",
+        cause.getMessage(), role, cached.loadedAt());
+    return cached;
+  }
+
+  private static CachedPermissions await(CompletableFuture<CachedPermissions> load) {
+    try {
+      return load.join();
+    } catch (CompletionException exception) {
+      if (exception.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw exception;
+    }
+  }
+
+  private static Executor defaultExecutor() {
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("permissions-");
+    threadFactory.setDaemon(true);
+    // queues at most one refresh per cached role, as a role is not refreshed again until it is done
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static Executor defaultFanOutExecutor() {
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("permissions-fetch-");
+    threadFactory.setDaemon(true);
+    // when every thread is busy the caller fetches the group itself rather than queueing
+    return new ThreadPoolExecutor(0, MAX_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+        threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  private String eventName(String template) {
     String appNameTrimmed = appName.replace(" ", "").replace("-", "").trim();
-    return String.format(CACHE_REFRESH_EVENT_NAME_TEMPLATE, appNameTrimmed);
+    return String.format(template, appNameTrimmed);
+  }
+
+  /**
+   * Copies the permissions other replicas put in the shared store into the in-process cache.
+   */
+  private class SharedStoreListener implements SharedPermissionsStore.Listener {
+
+    @Override
+    public void updated(String key, CachedPermissions permissions) {
+      CachedPermissions cached = cache.get(key, CachedPermissions.class);
+      if (cached == null || permissions.loadedAt().isAfter(cached.loadedAt())) {
+        put(key, permissions);
+      }
+    }
+
+    @Override
+    public void cleared() {
+      cache.clear();
+      authoritiesByRoles.clear();
+    }
+  }
+
+  private record MemoisedAuthorities(List<Long> versions, List<GrantedAuthority> authorities) {
+  }
+
+  /**
+   * The permissions of a role and when they were loaded from the permissions service.
+   */
+  public record CachedPermissions(List<String> permissions, Instant loadedAt)
+      implements Serializable {
   }
 }
@@ -0,0 +1,56 @@
+package uk.gov.defra.tracesx.common.permissions;
+
+import java.util.function.Function;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import uk.gov.defra.tracesx.common.security.IdTokenUserDetails;
+
+/**
+ * What, besides the role, the cached permissions of a role depend on. Permissions fetched with the
+ * service credential depend on the role alone; permissions fetched with the token of the user are
+ * only shared with users with the same scope.
+ */
+public enum PermissionsCacheScope {
+
+  NONE(userDetails -> null),
+  ISSUER(IdTokenUserDetails::getIssuer),
+  ORGANISATION(IdTokenUserDetails::getCustomerOrganisationId);
+
+  private final Function<IdTokenUserDetails, String> scope;
+
+  PermissionsCacheScope(Function<IdTokenUserDetails, String> scope) {
+    this.scope = scope;
+  }
+
+  /**
+   * Returns the key the permissions of a role are cached under for the authenticated user. The
+   * key is the role itself when the cache is not scoped.
+   */
+  String cacheKey(String role) {
+    return cacheKey(role, currentUser());
+  }
+
+  /**
+   * Returns the key the permissions of a role are cached under for the user.
+   */
+  String cacheKey(String role, IdTokenUserDetails userDetails) {
+    if (this == NONE) {
+      return role;
+    }
+    String value = userDetails != null ? scope.apply(userDetails) : null;
+    if (value == null) {
+      value = "";
+    }
+    // length prefixed, so that no scope and role pair can produce the key of another
+    return value.length() + ":" + value + role;
+  }
+
+  private static IdTokenUserDetails currentUser() {
+    Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+    if (authentication != null
+        && authentication.getDetails() instanceof IdTokenUserDetails userDetails) {
+      return userDetails;
+    }
+    return null;
+  }
+}
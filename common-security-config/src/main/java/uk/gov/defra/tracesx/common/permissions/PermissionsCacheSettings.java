@@ -0,0 +1,76 @@
+package uk.gov.defra.tracesx.common.permissions;
+
+import static uk.gov.defra.tracesx.common.permissions.PermissionsCache.CACHE_KEY;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Duration;
+import java.util.Locale;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.springframework.cache.Cache;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+
+/**
+ * Tuning for the store behind {@link PermissionsCache}. The store is private to the permissions
+ * cache rather than taken from the {@code CacheManager} of the application, so that nothing else
+ * can read or write the {@link PermissionsCache.CachedPermissions} it holds.
+ */
+@Getter
+@Builder
+@EqualsAndHashCode
+public class PermissionsCacheSettings {
+
+  public static final String CAFFEINE_CACHE_TYPE = "caffeine";
+  public static final String SIMPLE_CACHE_TYPE = "simple";
+  public static final long DEFAULT_MAXIMUM_SIZE = 1_000;
+  public static final long DEFAULT_EXPIRE_AFTER_WRITE_MILLIS = 3_600_000;
+
+  /**
+   * {@value #CAFFEINE_CACHE_TYPE} is bounded in size, expires entries and can record hit and miss
+   * statistics; {@value #SIMPLE_CACHE_TYPE} is an unbounded map.
+   */
+  @Builder.Default
+  private String type = CAFFEINE_CACHE_TYPE;
+
+  /** Maximum number of entries of a {@value #CAFFEINE_CACHE_TYPE} cache. */
+  @Builder.Default
+  private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+  /** Age at which an entry of a {@value #CAFFEINE_CACHE_TYPE} cache is removed. */
+  @Builder.Default
+  private Duration expireAfterWrite = Duration.ofMillis(DEFAULT_EXPIRE_AFTER_WRITE_MILLIS);
+
+  /** Whether a {@value #CAFFEINE_CACHE_TYPE} cache records hit, miss and eviction counts. */
+  @Builder.Default
+  private boolean recordStats = true;
+
+  public static PermissionsCacheSettings defaults() {
+    return PermissionsCacheSettings.builder().build();
+  }
+
+  /**
+   * Builds the store chosen by {@link #getType()}.
+   *
+   * @throws IllegalArgumentException when the type is not one of the supported types
+   */
+  public Cache newCache() {
+    String cacheType = type.trim().toLowerCase(Locale.ROOT);
+    if (CAFFEINE_CACHE_TYPE.equals(cacheType)) {
+      Caffeine<Object, Object> caffeine = Caffeine.newBuilder()
+          .maximumSize(maximumSize)
+          .expireAfterWrite(expireAfterWrite);
+      if (recordStats) {
+        caffeine.recordStats();
+      }
+      return new CaffeineCache(CACHE_KEY, caffeine.build());
+    }
+    if (SIMPLE_CACHE_TYPE.equals(cacheType)) {
+      return new ConcurrentMapCache(CACHE_KEY);
+    }
+    throw new IllegalArgumentException(
+        "The property permissions.cache.type must be one of [" + CAFFEINE_CACHE_TYPE + ", "
+            + SIMPLE_CACHE_TYPE + "] but was " + type);
+  }
+}
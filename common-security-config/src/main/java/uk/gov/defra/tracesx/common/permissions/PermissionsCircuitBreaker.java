@@ -0,0 +1,209 @@
+package uk.gov.defra.tracesx.common.permissions;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Guards the calls made to the permissions service. After
+ * {@code permissions.service.circuitBreaker.failureThreshold} consecutive failures the circuit
+ * opens and calls are rejected without being made for
+ * {@code permissions.service.circuitBreaker.openDurationMillis}, after which a single call is let
+ * through to find out whether the service has recovered. At most
+ * {@code permissions.service.maxConcurrentCalls} calls are in flight at once; further calls are
+ * rejected rather than queued. A rejected call throws
+ * {@link PermissionsServiceUnavailableException}.
+ *
+ * <p>Only timeouts, connection failures and server errors count as failures; a client error means
+ * the service is up.
+ */
+@Component
+public class PermissionsCircuitBreaker {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PermissionsCircuitBreaker.class);
+  static final int DEFAULT_FAILURE_THRESHOLD = 5;
+  static final long DEFAULT_OPEN_DURATION_MILLIS = 30_000;
+  static final int DEFAULT_MAX_CONCURRENT_CALLS = 20;
+
+  private final Clock clock;
+
+  @Value("${permissions.service.circuitBreaker.failureThreshold:"
+      + DEFAULT_FAILURE_THRESHOLD + "}")
+  private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+  @Value("${permissions.service.circuitBreaker.openDurationMillis:"
+      + DEFAULT_OPEN_DURATION_MILLIS + "}")
+  private long openDurationMillis = DEFAULT_OPEN_DURATION_MILLIS;
+
+  @Value("${permissions.service.maxConcurrentCalls:" + DEFAULT_MAX_CONCURRENT_CALLS + "}")
+  private int maxConcurrentCalls = DEFAULT_MAX_CONCURRENT_CALLS;
+
+  private volatile Semaphore bulkhead;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private Instant openedAt;
+
+  @Autowired
+  PermissionsCircuitBreaker() {
+    this(Clock.systemUTC());
+  }
+
+  PermissionsCircuitBreaker(Clock clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Makes a call to the permissions service unless the circuit is open or too many calls are in
+   * flight.
+   */
+  <T> T call(Supplier<T> call) {
+    Semaphore permits = acquire();
+    try {
+      T result = call.get();
+      onSuccess();
+      return result;
+    } catch (RuntimeException | Error exception) {
+      onFailure(exception);
+      throw exception;
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Makes a non-blocking call to the permissions service unless the circuit is open or too many
+   * calls are in flight, in which case the returned future has already failed. The call counts as
+   * in flight until its future completes.
+   */
+  <T> CompletableFuture<T> callAsync(Supplier<CompletableFuture<T>> call) {
+    Semaphore permits;
+    CompletableFuture<T> result;
+    try {
+      permits = acquire();
+    } catch (PermissionsServiceUnavailableException exception) {
+      return CompletableFuture.failedFuture(exception);
+    }
+    try {
+      result = call.get();
+    } catch (RuntimeException exception) {
+      permits.release();
+      onFailure(exception);
+      return CompletableFuture.failedFuture(exception);
+    } catch (Error error) {
+      permits.release();
+      onFailure(error);
+      throw error;
+    }
+    return result.whenComplete((value, exception) -> {
+      permits.release();
+      if (exception == null) {
+        onSuccess();
+      } else {
+        onFailure(exception instanceof CompletionException ? exception.getCause() : exception);
+      }
+    });
+  }
+
+  private Semaphore acquire() {
+    if (!permitCall()) {
+      throw new PermissionsServiceUnavailableException(
+          "The permissions service is unavailable after repeated failures");
+    }
+    Semaphore permits = bulkhead();
+    if (!permits.tryAcquire()) {
+      releaseTrial();
+      throw new PermissionsServiceUnavailableException(
+          "Too many concurrent requests to the permissions service");
+    }
+    return permits;
+  }
+
+  private synchronized boolean permitCall() {
+    if (state == State.CLOSED) {
+      return true;
+    }
+    if (state == State.OPEN && openDurationElapsed()) {
+      // let a single call find out whether the service has recovered
+      state = State.HALF_OPEN;
+      return true;
+    }
+    return false;
+  }
+
+  private synchronized void releaseTrial() {
+    if (state == State.HALF_OPEN) {
+      state = State.OPEN;
+    }
+  }
+
+  private synchronized void onSuccess() {
+    if (state != State.CLOSED) {
+      LOGGER.info("The permissions service has recovered, closing the circuit");
+    }
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+  }
+
+  private synchronized void onFailure(Throwable exception) {
+    if (exception instanceof PermissionsServiceUnavailableException) {
+      return;
+    }
+    if (exception instanceof Error) {
+      // says nothing about the service, but a trial call must give up its slot
+      releaseTrial();
+      return;
+    }
+    if (!isServiceFailure(exception)) {
+      onSuccess();
+      return;
+    }
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN
+        || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+      LOGGER.warn("Opening the circuit to the permissions service after {} consecutive failures",
+          consecutiveFailures);
+      state = State.OPEN;
+      openedAt = clock.instant();
+    }
+  }
+
+  private boolean openDurationElapsed() {
+    return !clock.instant().isBefore(openedAt.plus(Duration.ofMillis(openDurationMillis)));
+  }
+
+  private Semaphore bulkhead() {
+    Semaphore permits = bulkhead;
+    if (permits == null) {
+      synchronized (this) {
+        if (bulkhead == null) {
+          bulkhead = new Semaphore(maxConcurrentCalls);
+        }
+        permits = bulkhead;
+      }
+    }
+    return permits;
+  }
+
+  private static boolean isServiceFailure(Throwable exception) {
+    return exception instanceof ResourceAccessException
+        || exception instanceof HttpServerErrorException;
+  }
+
+  private enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+}
@@ -2,33 +2,78 @@ package uk.gov.defra.tracesx.common.permissions;
 
 import static org.springframework.http.HttpHeaders.AUTHORIZATION;
 import static org.springframework.http.HttpMethod.GET;
+import static uk.gov.defra.tracesx.common.CommonWebMvcConfiguration.PERMISSIONS_ASYNC_HTTP_CLIENT_QUALIFIER;
 import static uk.gov.defra.tracesx.common.CommonWebMvcConfiguration.PERMISSIONS_REST_TEMPLATE_QUALIFIER;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
+import uk.gov.defra.tracesx.common.security.conversation.id.ConversationHeadersInterceptor;
 
 @Component
 public class PermissionsClient {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(PermissionsClient.class);
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final TypeReference<List<String>> PERMISSIONS_TYPE = new TypeReference<>() {
+  };
+
   @Value("${permissions.service.url:#{null}}")
   private String permissionsUrl;
 
+  @Value("${permissions.service.bulkEnabled:false}")
+  private boolean bulkEnabled;
+
+  @Value("${permissions.service.user:#{null}}")
+  private String serviceUser;
+
+  @Value("${permissions.service.password:#{null}}")
+  private String servicePassword;
+
+  // the Authorization header built from the service credential, encoded on first use
+  private volatile String serviceAuthorisation;
+
   private final RestTemplate permissionsRestTemplate;
+  private final ObjectProvider<CloseableHttpAsyncClient> permissionsAsyncHttpClient;
+  // cleared once the permissions service is found not to have the bulk endpoint
+  private final AtomicBoolean bulkEndpointAvailable = new AtomicBoolean(true);
 
   @Autowired
   public PermissionsClient(
-      @Qualifier(PERMISSIONS_REST_TEMPLATE_QUALIFIER) RestTemplate permissionsRestTemplate) {
+      @Qualifier(PERMISSIONS_REST_TEMPLATE_QUALIFIER) RestTemplate permissionsRestTemplate,
+      @Qualifier(PERMISSIONS_ASYNC_HTTP_CLIENT_QUALIFIER)
+          ObjectProvider<CloseableHttpAsyncClient> permissionsAsyncHttpClient) {
     this.permissionsRestTemplate = permissionsRestTemplate;
+    this.permissionsAsyncHttpClient = permissionsAsyncHttpClient;
   }
 
   List<String> permissionsList(String role, String authorisationToken) {
@@ -38,13 +83,113 @@ public class PermissionsClient {
     return getPermissions(uriComponentsBuilder, httpEntity);
   }
 
+  /**
+   * Requests the permissions of a role without blocking the calling thread. The future completes
+   * on an I/O thread of the {@value
+   * uk.gov.defra.tracesx.common.CommonWebMvcConfiguration#PERMISSIONS_ASYNC_HTTP_CLIENT_QUALIFIER}
+   * client, exceptionally with the exceptions {@link #permissionsList} throws.
+   */
+  CompletableFuture<List<String>> permissionsListAsync(String role, String authorisationToken) {
+    SimpleRequestBuilder requestBuilder = SimpleRequestBuilder
+        .get(getPath(role).build().encode().toUri())
+        .addHeader(AUTHORIZATION, authorisation(authorisationToken));
+    ConversationHeadersInterceptor.forEachHeader(requestBuilder::addHeader);
+    SimpleHttpRequest request = requestBuilder.build();
+    CompletableFuture<List<String>> permissions = new CompletableFuture<>();
+    permissionsAsyncHttpClient.getObject().execute(request, new FutureCallback<>() {
+      @Override
+      public void completed(SimpleHttpResponse response) {
+        try {
+          permissions.complete(readPermissions(response));
+        } catch (RuntimeException exception) {
+          permissions.completeExceptionally(exception);
+        }
+      }
+
+      @Override
+      public void failed(Exception exception) {
+        permissions.completeExceptionally(new ResourceAccessException(
+            "Unable to get permissions due to exception: " + exception));
+      }
+
+      @Override
+      public void cancelled() {
+        permissions.cancel(false);
+      }
+    });
+    return permissions;
+  }
+
+  /**
+   * Returns the permissions of each role, keyed by role in the order given. When
+   * {@code permissions.service.bulkEnabled} is set the roles are fetched with a single request,
+   * falling back to a request per role if the permissions service has no bulk endpoint.
+   */
+  Map<String, List<String>> permissionsLists(Collection<String> roles, String authorisationToken) {
+    if (roles.size() > 1 && isBulkAvailable()) {
+      try {
+        return bulkPermissionsLists(roles, authorisationToken);
+      } catch (HttpClientErrorException.NotFound exception) {
+        LOGGER.warn("The permissions service has no bulk endpoint, fetching each role instead");
+        bulkEndpointAvailable.set(false);
+      }
+    }
+    Map<String, List<String>> permissionsByRole = new LinkedHashMap<>();
+    for (String role : roles) {
+      permissionsByRole.put(role, permissionsList(role, authorisationToken));
+    }
+    return permissionsByRole;
+  }
+
+  /**
+   * Whether {@link #permissionsLists} fetches several roles with a single request.
+   */
+  boolean isBulkAvailable() {
+    return bulkEnabled && bulkEndpointAvailable.get();
+  }
+
   UriComponentsBuilder getPath(String role) {
+    return getRolesPath()
+        .pathSegment(role)
+        .path("/permissions");
+  }
+
+  UriComponentsBuilder getBulkPath(Collection<String> roles) {
+    return getRolesPath()
+        .path("/permissions")
+        .queryParam("role", roles.toArray());
+  }
+
+  private UriComponentsBuilder getRolesPath() {
     return Optional.ofNullable(permissionsUrl)
         .map(UriComponentsBuilder::fromUriString)
         .orElseThrow(() -> createPropertyNotFoundException("permissions.service.port"))
-        .path("/roles")
-        .pathSegment(role)
-        .path("/permissions");
+        .path("/roles");
+  }
+
+  private Map<String, List<String>> bulkPermissionsLists(
+      Collection<String> roles, String authorisationToken) {
+    HttpEntity<String> httpEntity = new HttpEntity<>(getHeaders(authorisationToken));
+    Map<String, List<String>> response;
+    try {
+      response = permissionsRestTemplate
+          .exchange(
+              getBulkPath(roles).build().encode().toUri(),
+              GET,
+              httpEntity,
+              new ParameterizedTypeReference<Map<String, List<String>>>() {
+              })
+          .getBody();
+    } catch (ResourceAccessException exception) {
+      throw new ResourceAccessException("Unable to get permissions due to exception: " + exception);
+    }
+    // roles the permissions service does not know have no permissions
+    Map<String, List<String>> permissionsByRole = new LinkedHashMap<>();
+    for (String role : roles) {
+      List<String> permissions = response != null ? response.get(role) : null;
+      permissionsByRole.put(role, permissions != null ? permissions : List.of());
+    }
+    return permissionsByRole;
   }
 
   private IllegalArgumentException createPropertyNotFoundException(String propertyName) {
@@ -54,13 +199,58 @@ public class PermissionsClient {
 
   private HttpHeaders getHeaders(String authorisationToken) {
     HttpHeaders headers = new HttpHeaders();
-    headers.add(AUTHORIZATION, authorisationToken);
+    headers.add(AUTHORIZATION, authorisation(authorisationToken));
+    ConversationHeadersInterceptor.forEachHeader(headers::add);
     return headers;
   }
 
+  /**
+   * Whether the permissions service is called with the service credential rather than with the
+   * token of the user whose roles are looked up, so that the permissions returned do not depend on
+   * the user.
+   */
+  boolean usesServiceCredential() {
+    return serviceUser != null && !serviceUser.isEmpty();
+  }
+
+  private String authorisation(String authorisationToken) {
+    if (!usesServiceCredential()) {
+      return authorisationToken;
+    }
+    String authorisation = serviceAuthorisation;
+    if (authorisation == null) {
+      authorisation = "Basic " + HttpHeaders.encodeBasicAuth(
+          serviceUser, servicePassword != null ? servicePassword : "", StandardCharsets.UTF_8);
+      serviceAuthorisation = authorisation;
+    }
+    return authorisation;
+  }
+
+  private static List<String> readPermissions(SimpleHttpResponse response) {
+    HttpStatusCode status = HttpStatusCode.valueOf(response.getCode());
+    byte[] body = response.getBodyBytes();
+    if (status.is4xxClientError()) {
+      throw HttpClientErrorException.create(
+          status, response.getReasonPhrase(), null, body, StandardCharsets.UTF_8);
+    }
+    if (status.isError()) {
+      throw HttpServerErrorException.create(
+          status, response.getReasonPhrase(), null, body, StandardCharsets.UTF_8);
+    }
+    if (body == null || body.length == 0) {
+      return List.of();
+    }
+    try {
+      return OBJECT_MAPPER.readValue(body, PERMISSIONS_TYPE);
+    } catch (IOException exception) {
+      throw new ResourceAccessException(
+          "Unable to read permissions due to exception: " + exception);
+    }
+  }
+
   private List<String> getPermissions(UriComponentsBuilder builder, HttpEntity<String> entity) {
     try {
-      return permissionsRestTemplate
+      List<String> permissions = permissionsRestTemplate
           .exchange(
               builder.build().encode().toUri(),
               GET,
@@ -68,6 +258,7 @@ public class PermissionsClient {
               new ParameterizedTypeReference<List<String>>() {
               })
           .getBody();
+      return permissions != null ? permissions : List.of();
     } catch (ResourceAccessException exception) {
       throw new ResourceAccessException("Unable to get permissions due to exception: " + exception);
     }
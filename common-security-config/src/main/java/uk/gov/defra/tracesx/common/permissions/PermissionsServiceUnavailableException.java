@@ -0,0 +1,14 @@
+package uk.gov.defra.tracesx.common.permissions;
+
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Thrown instead of calling the permissions service when it is known to be failing, or when too
+ * many calls to it are already in flight.
+ */
+public class PermissionsServiceUnavailableException extends ResourceAccessException {
+
+  public PermissionsServiceUnavailableException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,59 @@
+package uk.gov.defra.tracesx.common.permissions;
+
+import java.time.Duration;
+import uk.gov.defra.tracesx.common.permissions.PermissionsCache.CachedPermissions;
+
+/**
+ * Store of role permissions shared by every replica of a service, used by {@link PermissionsCache}
+ * behind its in-process cache when the application defines a bean of this type. Permissions loaded
+ * by one replica are put in the store and broadcast to the other replicas, so the permissions
+ * service is asked for each role roughly once per refresh across the fleet.
+ *
+ * <p>Implementations are expected to be backed by a distributed cache with publish and subscribe,
+ * and may throw runtime exceptions when it cannot be reached; {@link PermissionsCache} then carries
+ * on with its in-process cache alone.
+ */
+public interface SharedPermissionsStore {
+
+  /**
+   * Returns the permissions stored under a key, or null when there are none. The key is the role,
+   * prefixed with the scope of the user when {@code permissions.cache.scope} is set.
+   */
+  CachedPermissions get(String key);
+
+  /**
+   * Stores permissions under a key and notifies the listeners of every replica.
+   */
+  void put(String key, CachedPermissions permissions);
+
+  /**
+   * Claims the refresh of the permissions stored under a key for the length of the lease, so that
+   * when they fall due only one replica asks the permissions service for them. Returns false while
+   * another replica holds an unexpired claim. Implementations are expected to put a marker that
+   * expires after the lease only if none is present, such as Redis {@code SET NX PX}. The default
+   * grants every claim, so each replica refreshes for itself.
+   */
+  default boolean claimRefresh(String key, Duration lease) {
+    return true;
+  }
+
+  /**
+   * Removes the permissions of every role and notifies the listeners of every replica.
+   */
+  void clear();
+
+  /**
+   * Registers a listener notified when any replica puts permissions in, or clears, the store.
+   */
+  void subscribe(Listener listener);
+
+  /**
+   * Receives the changes made to a {@link SharedPermissionsStore}.
+   */
+  interface Listener {
+
+    void updated(String key, CachedPermissions permissions);
+
+    void cleared();
+  }
+}
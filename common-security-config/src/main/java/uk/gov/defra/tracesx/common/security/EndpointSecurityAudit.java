@@ -0,0 +1,202 @@
+package uk.gov.defra.tracesx.common.security;
+
+import static org.springframework.core.annotation.AnnotationUtils.findAnnotation;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.ParseException;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.MethodReference;
+import org.springframework.expression.spel.ast.PropertyOrFieldReference;
+import org.springframework.expression.spel.ast.StringLiteral;
+import org.springframework.expression.spel.standard.SpelExpression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+/**
+ * Audits the handler methods mapped to the authorized patterns of {@link ServiceUrlPatterns} when
+ * the application context is refreshed. Each {@link PreAuthorize} expression is parsed, and a
+ * JSON report of every endpoint and the authorities its expression checks is logged. A handler
+ * without {@link PreAuthorize}, or whose expression does not parse, is logged as a warning, and
+ * fails startup instead when {@code spring.security.endpointAudit.strict} is true.
+ */
+@Component
+@ConditionalOnWebApplication(type = Type.SERVLET)
+public class EndpointSecurityAudit implements ApplicationListener<ContextRefreshedEvent> {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EndpointSecurityAudit.class);
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final PathMatcher PATH_MATCHER = new AntPathMatcher();
+  private static final Set<String> AUTHORITY_CHECKS =
+      Set.of("hasAuthority", "hasAnyAuthority", "hasRole", "hasAnyRole");
+  private static final String NOT_PRE_AUTHORIZED = "Rights are not defined for this handler";
+  // holds the values of the fields expressions can refer to, such as read
+  private static final PermissionsSecurityExpressionRoot ROOT_FIELDS =
+      new PermissionsSecurityExpressionRoot(null);
+
+  private final ServiceUrlPatterns serviceUrlPatterns;
+  private final ExpressionParser expressionParser = new SpelExpressionParser();
+
+  @Value("${spring.security.endpointAudit.strict:false}")
+  private boolean strict = false;
+
+  private volatile List<EndpointSecurity> report = List.of();
+
+  @Autowired
+  public EndpointSecurityAudit(ServiceUrlPatterns serviceUrlPatterns) {
+    this.serviceUrlPatterns = serviceUrlPatterns;
+  }
+
+  @Override
+  public void onApplicationEvent(ContextRefreshedEvent event) {
+    List<EndpointSecurity> endpoints = audit(
+        event.getApplicationContext().getBeansOfType(RequestMappingHandlerMapping.class).values());
+    report = endpoints;
+    LOGGER.info("Endpoint security report {}", toJson(endpoints));
+
+    List<String> gaps = endpoints.stream()
+        .filter(endpoint -> endpoint.problem() != null)
+        .map(endpoint -> endpoint.paths() + " " + endpoint.handler() + ": " + endpoint.problem())
+        .toList();
+    if (gaps.isEmpty()) {
+      return;
+    }
+    String message = "Endpoint security is incomplete for " + String.join(", ", gaps);
+    if (strict) {
+      throw new IllegalStateException(message);
+    }
+    LOGGER.warn(message);
+  }
+
+  /**
+   * Returns the endpoints found when the application context was last refreshed.
+   */
+  public List<EndpointSecurity> getReport() {
+    return report;
+  }
+
+  List<EndpointSecurity> audit(Collection<RequestMappingHandlerMapping> handlerMappings) {
+    List<String> authorizedPatterns = serviceUrlPatterns.getAuthorizedPatterns();
+    List<EndpointSecurity> endpoints = new ArrayList<>();
+    for (RequestMappingHandlerMapping handlerMapping : handlerMappings) {
+      for (Map.Entry<RequestMappingInfo, HandlerMethod> handler
+          : handlerMapping.getHandlerMethods().entrySet()) {
+        if (isAuthorizedPath(handler.getKey(), authorizedPatterns)) {
+          endpoints.add(audit(handler.getKey(), handler.getValue()));
+        }
+      }
+    }
+    endpoints.sort(Comparator.comparing(endpoint -> endpoint.paths() + endpoint.handler()));
+    return List.copyOf(endpoints);
+  }
+
+  private EndpointSecurity audit(RequestMappingInfo mapping, HandlerMethod handler) {
+    List<String> paths = mapping.getPatternValues().stream().sorted().toList();
+    List<String> methods = mapping.getMethodsCondition().getMethods().stream()
+        .map(Enum::name)
+        .sorted()
+        .toList();
+    PreAuthorize preAuthorize = findAnnotation(handler.getMethod(), PreAuthorize.class);
+    if (preAuthorize == null) {
+      return new EndpointSecurity(
+          paths, methods, handler.toString(), null, List.of(), NOT_PRE_AUTHORIZED);
+    }
+    try {
+      SpelExpression expression =
+          (SpelExpression) expressionParser.parseExpression(preAuthorize.value());
+      Set<String> authorities = new LinkedHashSet<>();
+      collectAuthorities(expression.getAST(), authorities);
+      return new EndpointSecurity(paths, methods, handler.toString(), preAuthorize.value(),
+          List.copyOf(authorities), null);
+    } catch (ParseException exception) {
+      return new EndpointSecurity(paths, methods, handler.toString(), preAuthorize.value(),
+          List.of(), "Invalid @PreAuthorize expression: " + exception.getMessage());
+    }
+  }
+
+  /**
+   * Adds the arguments of the authority and role checks in the expression, resolving the fields
+   * of {@link PermissionsSecurityExpressionRoot} such as {@code read} to their values.
+   */
+  private static void collectAuthorities(SpelNode node, Set<String> authorities) {
+    if (node instanceof MethodReference method && AUTHORITY_CHECKS.contains(method.getName())) {
+      for (int i = 0; i < node.getChildCount(); i++) {
+        SpelNode argument = node.getChild(i);
+        if (argument instanceof StringLiteral literal) {
+          authorities.add(String.valueOf(literal.getLiteralValue().getValue()));
+        } else if (argument instanceof PropertyOrFieldReference reference) {
+          authorities.add(rootFieldValue(reference.getName()));
+        } else {
+          authorities.add(argument.toStringAST());
+        }
+      }
+      return;
+    }
+    for (int i = 0; i < node.getChildCount(); i++) {
+      collectAuthorities(node.getChild(i), authorities);
+    }
+  }
+
+  private static String rootFieldValue(String name) {
+    Field field = ReflectionUtils.findField(PermissionsSecurityExpressionRoot.class, name);
+    if (field == null || field.getType() != String.class) {
+      return name;
+    }
+    return (String) ReflectionUtils.getField(field, ROOT_FIELDS);
+  }
+
+  /**
+   * Whether any path of the mapping is one the {@link PreAuthorizeChecker} is registered for. Path
+   * variables in the mapping are matched by the wildcards of the authorized patterns.
+   */
+  private static boolean isAuthorizedPath(RequestMappingInfo mapping, List<String> patterns) {
+    return mapping.getPatternValues().stream()
+        .anyMatch(path -> patterns.stream().anyMatch(pattern -> PATH_MATCHER.match(pattern, path)));
+  }
+
+  private static String toJson(List<EndpointSecurity> endpoints) {
+    try {
+      return OBJECT_MAPPER.writeValueAsString(endpoints);
+    } catch (JsonProcessingException exception) {
+      throw new IllegalStateException(exception);
+    }
+  }
+
+  /**
+   * An endpoint mapped to an authorized pattern, the {@link PreAuthorize} expression of its handler
+   * and the authorities the expression checks. The problem is null unless the endpoint is not
+   * secured as it should be.
+   */
+  public record EndpointSecurity(
+      List<String> paths,
+      List<String> methods,
+      String handler,
+      String expression,
+      List<String> authorities,
+      String problem) {
+  }
+}
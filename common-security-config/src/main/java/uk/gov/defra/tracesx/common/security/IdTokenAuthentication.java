@@ -1,15 +1,37 @@
 package uk.gov.defra.tracesx.common.security;
 
+import java.util.Collection;
 import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import uk.gov.defra.tracesx.common.permissions.GrantedPermissions;
 
 public class IdTokenAuthentication extends AbstractAuthenticationToken {
 
+  // shared by every request of users with the same roles, so neither copied nor searched
+  private final GrantedPermissions permissions;
+
   public IdTokenAuthentication(IdTokenUserDetails idTokenUserDetails) {
-    super(idTokenUserDetails.getAuthorities());
+    super(idTokenUserDetails.getAuthorities() instanceof GrantedPermissions
+        ? AuthorityUtils.NO_AUTHORITIES : idTokenUserDetails.getAuthorities());
+    this.permissions = idTokenUserDetails.getAuthorities() instanceof GrantedPermissions granted
+        ? granted : null;
     this.setAuthenticated(true);
     this.setDetails(idTokenUserDetails);
   }
 
+  /**
+   * Returns the {@link GrantedPermissions} of the user as they are, rather than a copy, so that
+   * expressions can check them without searching the list.
+   */
+  @Override
+  public Collection<GrantedAuthority> getAuthorities() {
+    if (permissions != null) {
+      return permissions;
+    }
+    return super.getAuthorities();
+  }
+
   @Override
   public Object getCredentials() {
     return ((IdTokenUserDetails) getDetails()).getIdToken();
@@ -18,6 +18,7 @@ public class IdTokenUserDetails implements UserDetails {
   private final String customerId; //customerId
   private final String customerOrganisationId; //customerOrganisationId
   private final String centralCompetentAuthority; //cca
+  private final String issuer; //iss
 
   @Override
   public List<GrantedAuthority> getAuthorities() {
@@ -53,6 +54,10 @@ public class IdTokenUserDetails implements UserDetails {
     return centralCompetentAuthority;
   }
 
+  public String getIssuer() {
+    return issuer;
+  }
+
   @Override
   public boolean isAccountNonExpired() {
     return true;
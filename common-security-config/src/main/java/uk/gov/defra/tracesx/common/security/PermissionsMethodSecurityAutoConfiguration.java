@@ -0,0 +1,34 @@
+package uk.gov.defra.tracesx.common.security;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.context.annotation.Bean;
+import org.springframework.security.access.expression.method.MethodSecurityExpressionHandler;
+import org.springframework.security.access.hierarchicalroles.RoleHierarchy;
+
+/**
+ * Evaluates the method security expressions of the {@link WebSecurityConfiguration} with the
+ * {@link PermissionsMethodSecurityExpressionHandler}, unless the application defines its own
+ * {@link MethodSecurityExpressionHandler}. An auto-configuration, so that the condition is checked
+ * after the beans of the application are registered.
+ */
+@AutoConfiguration
+@ConditionalOnWebApplication(type = Type.SERVLET)
+public class PermissionsMethodSecurityAutoConfiguration {
+
+  /**
+   * The handler, given the {@link RoleHierarchy} of the application when it defines one.
+   */
+  @Bean
+  @ConditionalOnMissingBean(MethodSecurityExpressionHandler.class)
+  static MethodSecurityExpressionHandler methodSecurityExpressionHandler(
+      ObjectProvider<RoleHierarchy> roleHierarchy) {
+    PermissionsMethodSecurityExpressionHandler handler =
+        new PermissionsMethodSecurityExpressionHandler();
+    roleHierarchy.ifAvailable(handler::setRoleHierarchy);
+    return handler;
+  }
+}
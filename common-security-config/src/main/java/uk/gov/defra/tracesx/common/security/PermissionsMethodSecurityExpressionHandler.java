@@ -0,0 +1,29 @@
+package uk.gov.defra.tracesx.common.security;
+
+import java.util.function.Supplier;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.security.access.expression.method.DefaultMethodSecurityExpressionHandler;
+import org.springframework.security.access.expression.method.MethodSecurityExpressionOperations;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Evaluates method security expressions against a {@link PermissionsSecurityExpressionRoot}. The
+ * authorities are checked as Spring Security does when a role hierarchy has been set.
+ */
+public class PermissionsMethodSecurityExpressionHandler
+    extends DefaultMethodSecurityExpressionHandler {
+
+  @Override
+  public EvaluationContext createEvaluationContext(
+      Supplier<Authentication> authentication, MethodInvocation invocation) {
+    EvaluationContext context = super.createEvaluationContext(authentication, invocation);
+    if (getRoleHierarchy() == null && context instanceof StandardEvaluationContext standard) {
+      MethodSecurityExpressionOperations root =
+          (MethodSecurityExpressionOperations) standard.getRootObject().getValue();
+      standard.setRootObject(new PermissionsSecurityExpressionRoot(root));
+    }
+    return context;
+  }
+}
@@ -0,0 +1,128 @@
+package uk.gov.defra.tracesx.common.security;
+
+import org.springframework.security.access.expression.method.MethodSecurityExpressionOperations;
+import org.springframework.security.core.Authentication;
+import uk.gov.defra.tracesx.common.permissions.GrantedPermissions;
+
+/**
+ * Root object of method security expressions that answers {@code hasAuthority} and
+ * {@code hasAnyAuthority} from the bitset of {@link GrantedPermissions} when the user has them,
+ * and leaves every other expression to the root created by Spring Security.
+ */
+public class PermissionsSecurityExpressionRoot implements MethodSecurityExpressionOperations {
+
+  // the fields of SecurityExpressionRoot that expressions can refer to
+  public final boolean permitAll = true;
+  public final boolean denyAll = false;
+  public final String read = "read";
+  public final String write = "write";
+  public final String create = "create";
+  public final String delete = "delete";
+  public final String admin = "administration";
+
+  private final MethodSecurityExpressionOperations delegate;
+
+  public PermissionsSecurityExpressionRoot(MethodSecurityExpressionOperations delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public boolean hasAuthority(String authority) {
+    if (getAuthentication().getAuthorities() instanceof GrantedPermissions permissions) {
+      return permissions.hasAuthority(authority);
+    }
+    return delegate.hasAuthority(authority);
+  }
+
+  @Override
+  public boolean hasAnyAuthority(String... authorities) {
+    if (getAuthentication().getAuthorities() instanceof GrantedPermissions permissions) {
+      return permissions.hasAnyAuthority(authorities);
+    }
+    return delegate.hasAnyAuthority(authorities);
+  }
+
+  @Override
+  public Authentication getAuthentication() {
+    return delegate.getAuthentication();
+  }
+
+  public Object getPrincipal() {
+    return getAuthentication().getPrincipal();
+  }
+
+  @Override
+  public boolean hasRole(String role) {
+    return delegate.hasRole(role);
+  }
+
+  @Override
+  public boolean hasAnyRole(String... roles) {
+    return delegate.hasAnyRole(roles);
+  }
+
+  @Override
+  public boolean permitAll() {
+    return delegate.permitAll();
+  }
+
+  @Override
+  public boolean denyAll() {
+    return delegate.denyAll();
+  }
+
+  @Override
+  public boolean isAnonymous() {
+    return delegate.isAnonymous();
+  }
+
+  @Override
+  public boolean isAuthenticated() {
+    return delegate.isAuthenticated();
+  }
+
+  @Override
+  public boolean isRememberMe() {
+    return delegate.isRememberMe();
+  }
+
+  @Override
+  public boolean isFullyAuthenticated() {
+    return delegate.isFullyAuthenticated();
+  }
+
+  @Override
+  public boolean hasPermission(Object target, Object permission) {
+    return delegate.hasPermission(target, permission);
+  }
+
+  @Override
+  public boolean hasPermission(Object targetId, String targetType, Object permission) {
+    return delegate.hasPermission(targetId, targetType, permission);
+  }
+
+  @Override
+  public void setFilterObject(Object filterObject) {
+    delegate.setFilterObject(filterObject);
+  }
+
+  @Override
+  public Object getFilterObject() {
+    return delegate.getFilterObject();
+  }
+
+  @Override
+  public void setReturnObject(Object returnObject) {
+    delegate.setReturnObject(returnObject);
+  }
+
+  @Override
+  public Object getReturnObject() {
+    return delegate.getReturnObject();
+  }
+
+  @Override
+  public Object getThis() {
+    return delegate.getThis();
+  }
+}
@@ -4,6 +4,9 @@ import static org.springframework.core.annotation.AnnotationUtils.findAnnotation
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.method.HandlerMethod;
 import org.springframework.web.servlet.HandlerInterceptor;
@@ -12,16 +15,21 @@ public class PreAuthorizeChecker implements HandlerInterceptor {
 
   private static final String MESSAGE = "Rights are not defined for this handler";
 
+  // whether each handler method is annotated, looked up once rather than on every request
+  private final ConcurrentMap<Method, Boolean> preAuthorized = new ConcurrentHashMap<>();
+
   @Override
   public boolean preHandle(
       HttpServletRequest request, HttpServletResponse response, Object handler) {
-    if (handler instanceof HandlerMethod proxy) {
-      PreAuthorize annotation = findAnnotation(proxy.getMethod(), PreAuthorize.class);
-      if (annotation == null) {
-        // prevent access to method without security restrictions
-        throw new NullPointerException(MESSAGE);
-      }
+    if (handler instanceof HandlerMethod proxy && !isPreAuthorized(proxy.getMethod())) {
+      // prevent access to method without security restrictions
+      throw new NullPointerException(MESSAGE);
     }
     return true;
   }
+
+  private boolean isPreAuthorized(Method method) {
+    return preAuthorized.computeIfAbsent(
+        method, handlerMethod -> findAnnotation(handlerMethod, PreAuthorize.class) != null);
+  }
 }
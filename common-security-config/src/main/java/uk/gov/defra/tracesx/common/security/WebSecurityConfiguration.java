@@ -1,6 +1,9 @@
 package uk.gov.defra.tracesx.common.security;
 
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
@@ -17,15 +20,22 @@ import org.springframework.security.web.util.matcher.AnyRequestMatcher;
 import uk.gov.defra.tracesx.common.permissions.PermissionsCache;
 import uk.gov.defra.tracesx.common.security.conversation.id.ConversationFilter;
 import uk.gov.defra.tracesx.common.security.conversation.id.ConversationStore;
+import uk.gov.defra.tracesx.common.security.filter.JwtPermissionsFilter;
 import uk.gov.defra.tracesx.common.security.filter.JwtTokenFilter;
 import uk.gov.defra.tracesx.common.security.filter.PermissionsFilter;
 import uk.gov.defra.tracesx.common.security.jwt.JwtTokenValidator;
 
 @Configuration
+@ConditionalOnWebApplication(type = Type.SERVLET)
 @EnableWebSecurity
 @EnableMethodSecurity
 public class WebSecurityConfiguration {
 
+  /**
+   * Paths served without authentication, shared with {@code ReactiveWebSecurityConfiguration}.
+   */
+  public static final String PUBLIC_PATHS = "${spring.security.publicPaths:/error,/,/admin/**}";
+
   private static final int PUBLIC_PATH_SECURITY_ORDER = 1;
   private static final int SERVICE_RESOURCES_SECURITY_ORDER = 2;
   private static final int SERVICE_PATH_SECURITY_ORDER = 3;
@@ -38,6 +48,12 @@ public class WebSecurityConfiguration {
     private final PermissionsCache permissionsCache;
     private final ConversationStore conversationStore;
 
+    @Value("${spring.security.singleAuthenticationFilter:false}")
+    private boolean singleAuthenticationFilter;
+
+    @Value(PUBLIC_PATHS)
+    private String[] publicPaths;
+
     public ServiceResourcesSecurityConfiguration(
         JwtTokenValidator jwtTokenValidator,
         PermissionsCache permissionsCache,
@@ -51,7 +67,7 @@ public class WebSecurityConfiguration {
     @Bean
     @Order(PUBLIC_PATH_SECURITY_ORDER)
     public SecurityFilterChain publicFilterChain(HttpSecurity http) throws Exception {
-      http.securityMatcher("/error", "/", "/admin/**")
+      http.securityMatcher(publicPaths)
           .authorizeHttpRequests(authorize ->
               authorize.anyRequest().permitAll())
           .csrf(AbstractHttpConfigurer::disable)
@@ -71,9 +87,13 @@ public class WebSecurityConfiguration {
             exception -> exception.authenticationEntryPoint(unauthorizedEntryPoint()))
         .sessionManagement(sessionManagementConfigurer ->
             sessionManagementConfigurer.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
-        .addFilterBefore(conversationFilter(), UsernamePasswordAuthenticationFilter.class)
-        .addFilterBefore(jwtTokenFilter(), UsernamePasswordAuthenticationFilter.class)
-          .addFilterBefore(permissionsFilter(), UsernamePasswordAuthenticationFilter.class);
+          .addFilterBefore(conversationFilter(), UsernamePasswordAuthenticationFilter.class);
+      if (singleAuthenticationFilter) {
+        http.addFilterBefore(jwtPermissionsFilter(), UsernamePasswordAuthenticationFilter.class);
+      } else {
+        http.addFilterBefore(jwtTokenFilter(), UsernamePasswordAuthenticationFilter.class)
+            .addFilterBefore(permissionsFilter(), UsernamePasswordAuthenticationFilter.class);
+      }
       return http.build();
     }
 
@@ -94,5 +114,10 @@ public class WebSecurityConfiguration {
     private PermissionsFilter permissionsFilter() {
       return new PermissionsFilter(AnyRequestMatcher.INSTANCE, permissionsCache);
     }
+
+    private JwtPermissionsFilter jwtPermissionsFilter() {
+      return new JwtPermissionsFilter(
+          AnyRequestMatcher.INSTANCE, jwtTokenValidator, permissionsCache);
+    }
   }
 }
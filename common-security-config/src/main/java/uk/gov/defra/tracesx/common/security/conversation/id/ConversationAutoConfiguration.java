@@ -0,0 +1,22 @@
+package uk.gov.defra.tracesx.common.security.conversation.id;
+
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.task.TaskDecorator;
+
+/**
+ * Decorates the task executor Spring Boot configures for {@code @Async} methods, so they run with
+ * the conversation of their caller. An auto-configuration, so that it backs off whenever the
+ * application defines its own {@link TaskDecorator}, whatever order its beans are registered in.
+ */
+@AutoConfiguration(before = TaskExecutionAutoConfiguration.class)
+public class ConversationAutoConfiguration {
+
+  @Bean
+  @ConditionalOnMissingBean(TaskDecorator.class)
+  public TaskDecorator conversationTaskDecorator() {
+    return new ConversationTaskDecorator();
+  }
+}
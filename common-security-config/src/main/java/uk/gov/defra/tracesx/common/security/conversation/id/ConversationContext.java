@@ -0,0 +1,56 @@
+package uk.gov.defra.tracesx.common.security.conversation.id;
+
+import java.util.function.Supplier;
+
+/**
+ * Holds the conversation of the request being handled by the current thread. Nothing is held by
+ * a thread outside of a request, so threads that come and go, such as virtual threads, do not
+ * each keep a conversation alive once they are done with it.
+ */
+public final class ConversationContext {
+
+  private static final ThreadLocal<ConversationStore> CURRENT = new ThreadLocal<>();
+
+  private ConversationContext() {
+  }
+
+  /**
+   * Returns the conversation of the current thread, or null when there is none.
+   */
+  public static ConversationStore current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Makes the conversation that of the current thread until {@link #clear()} is called.
+   */
+  public static void set(ConversationStore conversation) {
+    CURRENT.set(conversation);
+  }
+
+  /**
+   * Removes the conversation of the current thread.
+   */
+  public static void clear() {
+    CURRENT.remove();
+  }
+
+  /**
+   * Calls the supplier with the conversation as that of the current thread, and then restores the
+   * conversation the thread had before. Used where the conversation is not held by the thread, such
+   * as on the reactive stack, to make it visible to code that reads it from here.
+   */
+  public static <T> T callWith(ConversationStore conversation, Supplier<T> call) {
+    ConversationStore previous = CURRENT.get();
+    CURRENT.set(conversation);
+    try {
+      return call.get();
+    } finally {
+      if (previous != null) {
+        CURRENT.set(previous);
+      } else {
+        CURRENT.remove();
+      }
+    }
+  }
+}
@@ -12,8 +12,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 public class ConversationFilter implements Filter {
 
-  private static final String CONVERSATION_ID_HEADER = "INS-ConversationId";
-  private static final String CONVERSATION_IP_HEADER = "INS-ConversationIp";
+  static final String CONVERSATION_ID_HEADER = "INS-ConversationId";
+  static final String CONVERSATION_IP_HEADER = "INS-ConversationIp";
   private static final String DEFAULT_CONVERSATION_IP = "0.0.0.0";
 
   private final ConversationStore conversationStore;
@@ -30,16 +30,23 @@ public class ConversationFilter implements Filter {
 
     HttpServletRequest request = (HttpServletRequest) servletRequest;
     String conversationId = request.getHeader(CONVERSATION_ID_HEADER);
-    Optional<String> conversationIp =
-        Optional.ofNullable(request.getHeader(CONVERSATION_IP_HEADER))
-            .map(header -> header.split(":")[0]);
     try {
       conversationStore.setConversationId(conversationId);
-      conversationStore.setConversationIp(conversationIp.orElse(DEFAULT_CONVERSATION_IP));
+      conversationStore.setConversationIp(
+          conversationIp(request.getHeader(CONVERSATION_IP_HEADER)));
       chain.doFilter(servletRequest, servletResponse);
     } finally {
       // Clear the thread in case filter is skipped
       conversationStore.clear();
     }
   }
+
+  /**
+   * Returns the address in the conversation ip header, without its port.
+   */
+  static String conversationIp(String header) {
+    return Optional.ofNullable(header)
+        .map(value -> value.split(":")[0])
+        .orElse(DEFAULT_CONVERSATION_IP);
+  }
 }
@@ -0,0 +1,42 @@
+package uk.gov.defra.tracesx.common.security.conversation.id;
+
+import static uk.gov.defra.tracesx.common.security.conversation.id.ConversationFilter.CONVERSATION_ID_HEADER;
+import static uk.gov.defra.tracesx.common.security.conversation.id.ConversationFilter.CONVERSATION_IP_HEADER;
+
+import java.io.IOException;
+import java.util.function.BiConsumer;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Adds the conversation headers of the current thread to outbound requests that do not already
+ * set them, so that downstream services log the same conversation.
+ */
+public class ConversationHeadersInterceptor implements ClientHttpRequestInterceptor {
+
+  @Override
+  public ClientHttpResponse intercept(
+      HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+    forEachHeader(request.getHeaders()::addIfAbsent);
+    return execution.execute(request, body);
+  }
+
+  /**
+   * Passes the name and value of each conversation header of the current thread to the consumer,
+   * for clients that are not configured with interceptors.
+   */
+  public static void forEachHeader(BiConsumer<String, String> header) {
+    ConversationStore conversation = ConversationContext.current();
+    if (conversation == null) {
+      return;
+    }
+    if (conversation.getConversationId() != null) {
+      header.accept(CONVERSATION_ID_HEADER, conversation.getConversationId());
+    }
+    if (conversation.getConversationIp() != null) {
+      header.accept(CONVERSATION_IP_HEADER, conversation.getConversationIp());
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package uk.gov.defra.tracesx.common.security.conversation.id;
+
+import java.util.concurrent.Executor;
+import org.springframework.core.task.TaskDecorator;
+
+/**
+ * Runs tasks with the conversation of the thread that submitted them, so that work moved off the
+ * request thread, such as {@code @Async} methods or {@link java.util.concurrent.CompletableFuture}
+ * stages, sees the same conversation. Register it on a task executor with
+ * {@code setTaskDecorator}, or wrap any other executor with {@link #wrap(Executor)}.
+ */
+public class ConversationTaskDecorator implements TaskDecorator {
+
+  @Override
+  public Runnable decorate(Runnable runnable) {
+    ConversationStore current = ConversationContext.current();
+    if (current == null) {
+      return runnable;
+    }
+    // copied, as the submitting thread clears its conversation once its request completes
+    ConversationStore conversation =
+        new ConversationStore(current.getConversationId(), current.getConversationIp());
+    return () -> {
+      ConversationStore previous = ConversationContext.current();
+      ConversationContext.set(conversation);
+      try {
+        runnable.run();
+      } finally {
+        if (previous != null) {
+          ConversationContext.set(previous);
+        } else {
+          ConversationContext.clear();
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns an executor that runs each task on the given executor with the conversation of the
+   * thread that submitted it.
+   */
+  public static Executor wrap(Executor executor) {
+    ConversationTaskDecorator decorator = new ConversationTaskDecorator();
+    return task -> executor.execute(decorator.decorate(task));
+  }
+}
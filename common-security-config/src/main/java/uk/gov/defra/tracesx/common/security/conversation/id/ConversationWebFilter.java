@@ -0,0 +1,39 @@
+package uk.gov.defra.tracesx.common.security.conversation.id;
+
+import static uk.gov.defra.tracesx.common.security.conversation.id.ConversationFilter.CONVERSATION_ID_HEADER;
+import static uk.gov.defra.tracesx.common.security.conversation.id.ConversationFilter.CONVERSATION_IP_HEADER;
+import static uk.gov.defra.tracesx.common.security.conversation.id.ConversationFilter.conversationIp;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive counterpart of {@link ConversationFilter}. A request is not bound to a thread on the
+ * reactive stack, so the conversation is put in the Reactor context of the request, from which
+ * {@link #conversation()} reads it.
+ */
+public class ConversationWebFilter implements WebFilter {
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+    HttpHeaders headers = exchange.getRequest().getHeaders();
+    ConversationStore conversation = ConversationStore.builder()
+        .conversationId(headers.getFirst(CONVERSATION_ID_HEADER))
+        .conversationIp(conversationIp(headers.getFirst(CONVERSATION_IP_HEADER)))
+        .build();
+    return chain.filter(exchange)
+        .contextWrite(context -> context.put(ConversationStore.class, conversation));
+  }
+
+  /**
+   * Returns the conversation of the request being handled, or an empty conversation outside of
+   * one.
+   */
+  public static Mono<ConversationStore> conversation() {
+    return Mono.deferContextual(context ->
+        Mono.just(context.getOrDefault(ConversationStore.class, new ConversationStore())));
+  }
+}
@@ -0,0 +1,45 @@
+package uk.gov.defra.tracesx.common.security.conversation.id;
+
+/**
+ * {@link ConversationStore} that reads and writes the conversation held by the
+ * {@link ConversationContext} of the calling thread, so one instance can be shared by every
+ * thread.
+ */
+public class CurrentConversationStore extends ConversationStore {
+
+  @Override
+  public String getConversationId() {
+    ConversationStore conversation = ConversationContext.current();
+    return conversation != null ? conversation.getConversationId() : null;
+  }
+
+  @Override
+  public void setConversationId(String conversationId) {
+    conversation().setConversationId(conversationId);
+  }
+
+  @Override
+  public String getConversationIp() {
+    ConversationStore conversation = ConversationContext.current();
+    return conversation != null ? conversation.getConversationIp() : null;
+  }
+
+  @Override
+  public void setConversationIp(String conversationIp) {
+    conversation().setConversationIp(conversationIp);
+  }
+
+  @Override
+  public void clear() {
+    ConversationContext.clear();
+  }
+
+  private static ConversationStore conversation() {
+    ConversationStore conversation = ConversationContext.current();
+    if (conversation == null) {
+      conversation = new ConversationStore();
+      ConversationContext.set(conversation);
+    }
+    return conversation;
+  }
+}
@@ -0,0 +1,38 @@
+package uk.gov.defra.tracesx.common.security.filter;
+
+import static uk.gov.defra.tracesx.common.security.filter.JwtTokenFilter.requireToken;
+import static uk.gov.defra.tracesx.common.security.filter.PermissionsFilter.withPermissions;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import uk.gov.defra.tracesx.common.permissions.PermissionsCache;
+import uk.gov.defra.tracesx.common.security.IdTokenUserDetails;
+import uk.gov.defra.tracesx.common.security.jwt.JwtTokenValidator;
+
+/**
+ * Does the work of a {@link JwtTokenFilter} followed by a {@link PermissionsFilter} in one pass:
+ * the id token is validated and the permissions of its roles resolved before a single
+ * authentication is put in the security context.
+ */
+public class JwtPermissionsFilter extends StatelessAuthenticationProcessingFilter {
+
+  private final JwtTokenValidator jwtTokenValidator;
+  private final PermissionsCache permissionsCache;
+
+  public JwtPermissionsFilter(
+      RequestMatcher requiresAuthenticationRequestMatcher,
+      JwtTokenValidator jwtTokenValidator,
+      PermissionsCache permissionsCache) {
+    super(requiresAuthenticationRequestMatcher);
+    this.jwtTokenValidator = jwtTokenValidator;
+    this.permissionsCache = permissionsCache;
+  }
+
+  @Override
+  public Authentication attemptAuthentication(HttpServletRequest req, HttpServletResponse res) {
+    IdTokenUserDetails userDetails = jwtTokenValidator.validateToken(requireToken(req));
+    return withPermissions(userDetails, req, permissionsCache);
+  }
+}
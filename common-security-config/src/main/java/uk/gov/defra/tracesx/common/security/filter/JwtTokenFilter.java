@@ -30,17 +30,23 @@ public class JwtTokenFilter extends StatelessAuthenticationProcessingFilter {
 
   @Override
   public Authentication attemptAuthentication(HttpServletRequest req, HttpServletResponse res) {
+    IdTokenUserDetails userDetails = jwtTokenValidator.validateToken(requireToken(req));
+    return new IdTokenAuthentication(userDetails);
+  }
+
+  /**
+   * Returns the bearer token of the request, failing authentication when there is none.
+   */
+  static String requireToken(HttpServletRequest req) {
     String token = resolveToken(req);
     if (null != token) {
-      IdTokenUserDetails userDetails = jwtTokenValidator.validateToken(token);
-      return new IdTokenAuthentication(userDetails);
-    } else {
-      LOGGER.error("A 'Bearer' token was not found on the 'Authorization' header.");
-      throw new AuthenticationCredentialsNotFoundException("Missing credentials");
+      return token;
     }
+    LOGGER.error("A 'Bearer' token was not found on the 'Authorization' header.");
+    throw new AuthenticationCredentialsNotFoundException("Missing credentials");
   }
 
-  private String resolveToken(HttpServletRequest req) {
+  private static String resolveToken(HttpServletRequest req) {
     String bearerToken = req.getHeader("Authorization");
     if (bearerToken != null && bearerToken.toLowerCase().startsWith("bearer ")) {
       return bearerToken.substring(7);
@@ -11,7 +11,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.util.matcher.RequestMatcher;
@@ -45,25 +44,49 @@ public class PermissionsFilter extends StatelessAuthenticationProcessingFilter {
   @Override
   public Authentication attemptAuthentication(
       HttpServletRequest request, HttpServletResponse response) {
+    IdTokenUserDetails userDetails = (IdTokenUserDetails) getAuthentication().getDetails();
+    return withPermissions(userDetails, request, permissionsCache);
+  }
 
-    List<String> roles = getRoles();
+  /**
+   * Authenticates the user with the permissions of the roles in their id token in place of the
+   * roles.
+   */
+  static IdTokenAuthentication withPermissions(
+      IdTokenUserDetails userDetails, HttpServletRequest request,
+      PermissionsCache permissionsCache) {
+    List<String> roles = requireRoles(userDetails);
+    final String authorisationToken = request.getHeader(AUTHORIZATION);
+    return permissionsAuthentication(userDetails,
+        permissionsCache.grantedAuthorities(userDetails, roles, authorisationToken));
+  }
+
+  /**
+   * Returns the roles in the id token of the user, failing authentication when there are none.
+   */
+  public static List<String> requireRoles(UserDetails userDetails) {
+    List<String> roles = getRoles(userDetails);
     if (roles.isEmpty()) {
       LOGGER.error(ROLES_ARE_EMPTY);
       throw new PermissionsAuthenticationException(ROLES_ARE_EMPTY);
     }
+    return roles;
+  }
 
-    List<GrantedAuthority> permissions = getPermissions(request, roles);
+  /**
+   * Authenticates the user with the permissions of their roles in place of the roles, failing
+   * authentication when there are none.
+   */
+  public static IdTokenAuthentication permissionsAuthentication(
+      IdTokenUserDetails userDetails, List<GrantedAuthority> permissions) {
     if (permissions.isEmpty()) {
       LOGGER.error(PERMISSIONS_ARE_EMPTY);
       throw new PermissionsAuthenticationException(PERMISSIONS_ARE_EMPTY);
     }
-
-    return replaceAuthorities(permissions);
+    return new IdTokenAuthentication(replaceAuthorities(userDetails, permissions));
   }
 
-  private List<String> getRoles() {
-    Authentication authentication = getAuthentication();
-    UserDetails userDetails = (UserDetails) authentication.getDetails();
+  private static List<String> getRoles(UserDetails userDetails) {
     if (userDetails != null) {
       return userDetails.getAuthorities().stream()
           .map(GrantedAuthority::getAuthority)
@@ -72,16 +95,6 @@ public class PermissionsFilter extends StatelessAuthenticationProcessingFilter {
     return Collections.emptyList();
   }
 
-  private List<GrantedAuthority> getPermissions(HttpServletRequest request, List<String> roles) {
-    final String authorisationToken = request.getHeader(AUTHORIZATION);
-    return roles.stream()
-        .map(role -> permissionsCache.permissionsList(role, authorisationToken))
-        .flatMap(List::stream)
-        .distinct()
-        .<GrantedAuthority>map(SimpleGrantedAuthority::new)
-        .toList();
-  }
-
   public IdTokenAuthentication getAuthentication() {
     Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
     if (authentication instanceof IdTokenAuthentication idToken) {
@@ -94,12 +107,9 @@ public class PermissionsFilter extends StatelessAuthenticationProcessingFilter {
     throw new AuthenticationCredentialsNotFoundException(AUTHENTICATION_NOT_FOUND);
   }
 
-  private Authentication replaceAuthorities(List<GrantedAuthority> permissions) {
-    IdTokenAuthentication originalAuthentication = getAuthentication();
-    IdTokenUserDetails originalUserDetails =
-        (IdTokenUserDetails) originalAuthentication.getDetails();
-
-    IdTokenUserDetails newUserDetails = IdTokenUserDetails.builder()
+  private static IdTokenUserDetails replaceAuthorities(
+      IdTokenUserDetails originalUserDetails, List<GrantedAuthority> permissions) {
+    return IdTokenUserDetails.builder()
         .userObjectId(originalUserDetails.getUserObjectId())
         .displayName(originalUserDetails.getDisplayName())
         .idToken(originalUserDetails.getIdToken())
@@ -108,7 +118,7 @@ public class PermissionsFilter extends StatelessAuthenticationProcessingFilter {
         .customerId(originalUserDetails.getCustomerId())
         .customerOrganisationId(originalUserDetails.getCustomerOrganisationId())
         .centralCompetentAuthority(originalUserDetails.getCentralCompetentAuthority())
+        .issuer(originalUserDetails.getIssuer())
         .build();
-    return new IdTokenAuthentication(newUserDetails);
   }
 }
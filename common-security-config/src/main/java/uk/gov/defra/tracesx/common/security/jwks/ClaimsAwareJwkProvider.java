@@ -1,26 +1,57 @@
 package uk.gov.defra.tracesx.common.security.jwks;
 
-import com.auth0.jwk.GuavaCachedJwkProvider;
+import com.auth0.jwk.Jwk;
+import com.auth0.jwk.JwkException;
 import com.auth0.jwk.JwkProvider;
+import com.auth0.jwk.NetworkException;
+import com.auth0.jwk.UrlJwkProvider;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Extends {@link GuavaCachedJwkProvider} to add issuer and audience properties. IPAFFS supports
- * multiple authentication providers differentiated by their issuer and audience claims. These
- * properties allow the correct provider to be picked based on the claims.
+ * Caching {@link JwkProvider} with issuer and audience properties. IPAFFS supports multiple
+ * authentication providers differentiated by their issuer and audience claims. These properties
+ * allow the correct provider to be picked based on the claims.
+ *
+ * <p>A cached key older than its ttl is still returned while it is reloaded in the background, and
+ * {@link #refresh()} reloads every key of the jwks ahead of time, so request threads only block on
+ * the jwks url for a key id they have never seen. When the jwks url cannot be reached the last
+ * known keys continue to be served.
  */
-public class ClaimsAwareJwkProvider extends GuavaCachedJwkProvider {
+public class ClaimsAwareJwkProvider implements JwkProvider {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ClaimsAwareJwkProvider.class);
+
+  private final JwkProvider provider;
+
+  private final LoadingCache<String, Jwk> cache;
+
+  // the configured maximum, which is raised when the jwks url publishes more keys than this
+  private final long size;
 
   private final String issuer;
 
   private final String audience;
 
+  private final ClaimsVerifier claimsVerifier;
+
   /**
    * Creates a new cached provider specifying cache size and ttl.
    *
    * @param provider fallback provider to use when jwk is not cached
    * @param size number of jwt to cache
-   * @param expiresIn amount of time a jwk will live in the cache
+   * @param expiresIn amount of time after which a cached jwk is reloaded in the background
    * @param expiresUnit unit of the expiresIn parameter
    * @param issuer the issuer associated with this jwk provider
    * @param audience the audience associated with this jwk provider
@@ -32,9 +63,72 @@ public class ClaimsAwareJwkProvider extends GuavaCachedJwkProvider {
       TimeUnit expiresUnit,
       String issuer,
       String audience) {
-    super(provider, size, expiresIn, expiresUnit);
+    this(provider, size, expiresIn, expiresUnit, issuer, audience,
+        JwksCache.defaultLookupExecutor());
+  }
+
+  /**
+   * Creates a new cached provider whose keys are reloaded in the background on the given executor,
+   * rather than on the common fork join pool, as reloading blocks on the jwks url.
+   */
+  public ClaimsAwareJwkProvider(
+      JwkProvider provider,
+      long size,
+      long expiresIn,
+      TimeUnit expiresUnit,
+      String issuer,
+      String audience,
+      Executor executor) {
+    this.provider = provider;
+    this.size = size;
+    this.cache = Caffeine.newBuilder()
+        .maximumSize(size)
+        .refreshAfterWrite(expiresIn, expiresUnit)
+        .executor(executor)
+        .build(new JwkLoader(provider));
     this.issuer = issuer;
     this.audience = audience;
+    this.claimsVerifier = new ClaimsVerifier(issuer, audience);
+  }
+
+  @Override
+  public Jwk get(String keyId) throws JwkException {
+    try {
+      return cache.get(keyId);
+    } catch (CompletionException exception) {
+      if (exception.getCause() instanceof JwkException cause) {
+        throw cause;
+      }
+      throw exception;
+    }
+  }
+
+  /**
+   * Returns the key if this provider has it cached, or null, without asking the jwks url.
+   */
+  public Jwk getIfPresent(String keyId) {
+    return cache.getIfPresent(keyId);
+  }
+
+  /**
+   * Reloads the keys of this provider. When the provider is backed by a jwks url every published
+   * key is fetched with a single request, and keys no longer published are dropped; otherwise the
+   * keys already cached are reloaded in the background. A failed fetch keeps the current keys.
+   *
+   * @return the key ids dropped because the jwks url no longer publishes them
+   */
+  public Set<String> refresh() {
+    if (provider instanceof UrlJwkProvider urlJwkProvider) {
+      try {
+        return replaceKeys(urlJwkProvider.getAll());
+      } catch (JwkException exception) {
+        LOGGER.warn("Unable to refresh the jwks of {}, keeping the last known keys", issuer,
+            exception);
+      }
+    } else {
+      cache.refreshAll(cache.asMap().keySet());
+    }
+    return Set.of();
   }
 
   public String getIssuer() {
@@ -44,4 +138,59 @@ public class ClaimsAwareJwkProvider extends GuavaCachedJwkProvider {
   public String getAudience() {
     return audience;
   }
+
+  /**
+   * Returns the verifier of the issuer and audience of this provider, shared by every key it
+   * publishes.
+   */
+  public ClaimsVerifier getClaimsVerifier() {
+    return claimsVerifier;
+  }
+
+  private Set<String> replaceKeys(List<Jwk> jwks) {
+    Map<String, Jwk> jwksByKid = new HashMap<>();
+    for (Jwk jwk : jwks) {
+      if (jwk.getId() != null) {
+        jwksByKid.put(jwk.getId(), jwk);
+      }
+    }
+    Set<String> retiredKeyIds = new HashSet<>(cache.asMap().keySet());
+    retiredKeyIds.removeAll(jwksByKid.keySet());
+    // room for every published key, so that none of them is evicted as soon as it is prefetched
+    long maximum = Math.max(size, jwksByKid.size());
+    cache.policy().eviction().ifPresent(eviction -> eviction.setMaximum(maximum));
+    cache.putAll(jwksByKid);
+    cache.asMap().keySet().removeAll(retiredKeyIds);
+    LOGGER.debug("Refreshed {} keys of {}, {} no longer published", jwksByKid.size(), issuer,
+        retiredKeyIds.size());
+    return retiredKeyIds;
+  }
+
+  private static class JwkLoader implements CacheLoader<String, Jwk> {
+
+    private final JwkProvider provider;
+
+    JwkLoader(JwkProvider provider) {
+      this.provider = provider;
+    }
+
+    @Override
+    public Jwk load(String keyId) throws JwkException {
+      return provider.get(keyId);
+    }
+
+    @Override
+    public Jwk reload(String keyId, Jwk oldValue) throws JwkException {
+      try {
+        return provider.get(keyId);
+      } catch (NetworkException exception) {
+        // rethrowing keeps the old key in the cache until the jwks url can be reached again
+        throw exception;
+      } catch (JwkException exception) {
+        // the key is no longer published, so stop trusting it
+        LOGGER.debug("Key {} is no longer published", keyId, exception);
+        return null;
+      }
+    }
+  }
 }
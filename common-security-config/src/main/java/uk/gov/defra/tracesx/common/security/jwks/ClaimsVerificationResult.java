@@ -0,0 +1,14 @@
+package uk.gov.defra.tracesx.common.security.jwks;
+
+/**
+ * Outcome of checking the claims of an id token against the issuer and audience expected by a
+ * jwks configuration.
+ */
+public enum ClaimsVerificationResult {
+  SUCCESS,
+  INVALID_ISSUER,
+  INVALID_AUDIENCE,
+  MISSING_EXPIRY,
+  EXPIRED,
+  NOT_YET_VALID
+}
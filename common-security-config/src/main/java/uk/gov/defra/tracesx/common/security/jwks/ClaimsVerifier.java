@@ -0,0 +1,74 @@
+package uk.gov.defra.tracesx.common.security.jwks;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Immutable check of the issuer, audience, expiry and not-before claims of an id token. An
+ * instance is built once by the {@link ClaimsAwareJwkProvider} of a jwks configuration and is
+ * shared by every key it publishes and every request, replacing a claims verifier built per
+ * request and failures classified by their message. Matches the rules previously applied through
+ * {@code DefaultJWTClaimsVerifier}: the issuer must match, the audience must be exactly the
+ * expected audience, the expiry is required and a clock skew of 60 seconds is allowed.
+ */
+public class ClaimsVerifier {
+
+  static final Duration MAX_CLOCK_SKEW = Duration.ofSeconds(60);
+
+  private final String issuer;
+  private final List<String> audience;
+  private final Clock clock;
+
+  public ClaimsVerifier(String issuer, String audience) {
+    this(issuer, audience, Clock.systemUTC());
+  }
+
+  ClaimsVerifier(String issuer, String audience, Clock clock) {
+    this.issuer = issuer;
+    this.audience = audience == null ? null : List.of(audience);
+    this.clock = clock;
+  }
+
+  /**
+   * Whether the token was issued by, and for, the jwks configuration of this verifier. Reading the
+   * claims before the signature is verified lets the matching key be picked without trying the
+   * others, but is no substitute for {@link #verify(JWTClaimsSet)} once the signature is checked.
+   */
+  public boolean appliesTo(JWTClaimsSet claims) {
+    return isExpectedIssuer(claims) && isExpectedAudience(claims);
+  }
+
+  public ClaimsVerificationResult verify(JWTClaimsSet claims) {
+    if (!isExpectedIssuer(claims)) {
+      return ClaimsVerificationResult.INVALID_ISSUER;
+    }
+    if (!isExpectedAudience(claims)) {
+      return ClaimsVerificationResult.INVALID_AUDIENCE;
+    }
+    Date expirationTime = claims.getExpirationTime();
+    if (expirationTime == null) {
+      return ClaimsVerificationResult.MISSING_EXPIRY;
+    }
+    Instant now = clock.instant();
+    if (expirationTime.toInstant().isBefore(now.minus(MAX_CLOCK_SKEW))) {
+      return ClaimsVerificationResult.EXPIRED;
+    }
+    Date notBeforeTime = claims.getNotBeforeTime();
+    if (notBeforeTime != null && notBeforeTime.toInstant().isAfter(now.plus(MAX_CLOCK_SKEW))) {
+      return ClaimsVerificationResult.NOT_YET_VALID;
+    }
+    return ClaimsVerificationResult.SUCCESS;
+  }
+
+  private boolean isExpectedIssuer(JWTClaimsSet claims) {
+    return issuer == null || issuer.equals(claims.getIssuer());
+  }
+
+  private boolean isExpectedAudience(JWTClaimsSet claims) {
+    return audience == null || audience.equals(claims.getAudience());
+  }
+}
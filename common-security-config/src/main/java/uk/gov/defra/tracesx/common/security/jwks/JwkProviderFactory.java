@@ -3,7 +3,10 @@ package uk.gov.defra.tracesx.common.security.jwks;
 import com.auth0.jwk.JwkProvider;
 import com.auth0.jwk.UrlJwkProvider;
 import java.net.URL;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
@@ -16,8 +19,19 @@ public class JwkProviderFactory {
   @Value("${spring.security.jwt.keyExpiryMinutes ?: 60}")
   private int keyExpiryMinutes;
 
+  // also the connect and read timeout of the jwks url, so that a caller running a lookup itself
+  // is held no longer than the lookup deadline
+  @Value("${spring.security.jwt.keyLookupTimeoutMillis:"
+      + JwksCacheSettings.DEFAULT_KEY_LOOKUP_TIMEOUT_MILLIS + "}")
+  private int keyLookupTimeoutMillis = JwksCacheSettings.DEFAULT_KEY_LOOKUP_TIMEOUT_MILLIS;
+
   private TimeUnit keyExpiryUnits = TimeUnit.MINUTES;
 
+  // background key reloads block on the jwks url, so run on the jwks lookup threads
+  @Autowired(required = false)
+  @Qualifier(JwksCache.JWKS_EXECUTOR_QUALIFIER)
+  private Executor reloadExecutor = JwksCache.defaultLookupExecutor();
+
   public ClaimsAwareJwkProvider newInstance(JwksConfiguration config) {
     JwkProvider urlJwkProvider = createUrlJwkProvider(config.getJwksUrl());
     return new ClaimsAwareJwkProvider(
@@ -26,10 +40,11 @@ public class JwkProviderFactory {
         keyExpiryMinutes,
         keyExpiryUnits,
         config.getIssuer(),
-        config.getAudience());
+        config.getAudience(),
+        reloadExecutor);
   }
 
   protected JwkProvider createUrlJwkProvider(URL url) {
-    return new UrlJwkProvider(url);
+    return new UrlJwkProvider(url, keyLookupTimeoutMillis, keyLookupTimeoutMillis);
   }
 }
@@ -1,47 +1,121 @@
 package uk.gov.defra.tracesx.common.security.jwks;
 
+import com.auth0.jwk.InvalidPublicKeyException;
 import com.auth0.jwk.Jwk;
 import com.auth0.jwk.JwkException;
+import com.auth0.jwk.SigningKeyNotFoundException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 import uk.gov.defra.tracesx.common.exceptions.InsSecurityException;
 
 @Component
 public class JwksCache {
 
+  public static final String JWKS_EXECUTOR_QUALIFIER = "jwksExecutor";
+
   private static final Logger LOGGER = LoggerFactory.getLogger(JwksCache.class);
+  private static final int MAX_LOOKUP_THREADS = 16;
 
   private final List<ClaimsAwareJwkProvider> allJwkProviders;
-  private final List<Map<String, ClaimsAwareJwkProvider>> cachedJwkProviders;
+  // kid -> the providers known to publish it, bounded so that it cannot grow without limit
+  private final Cache<String, List<ClaimsAwareJwkProvider>> jwkProvidersByKid;
+  // kids that no provider published when last scanned
+  private final Cache<String, Boolean> unknownKids;
+  // scans in progress, so that concurrent lookups of the same kid share a single fetch
+  private final ConcurrentMap<String, CompletableFuture<List<ClaimsAwareJwkProvider>>> scans;
+  // System.nanoTime() of the last scan that found an unknown kid, per provider
+  private final Map<ClaimsAwareJwkProvider, AtomicLong> lastUnknownKeyFetch;
+  // the decoded public key and verifier of each kid, per provider
+  private final Cache<ProviderKey, DecodedKey> decodedKeys;
+  private final long minRefetchIntervalNanos;
+  private final long keyLookupTimeoutNanos;
+  private final Executor lookupExecutor;
+
+  public JwksCache(
+      List<JwksConfiguration> jwksConfiguration, JwkProviderFactory jwkProviderFactory) {
+    this(jwksConfiguration, jwkProviderFactory, JwksCacheSettings.defaults());
+  }
+
+  public JwksCache(
+      List<JwksConfiguration> jwksConfiguration,
+      JwkProviderFactory jwkProviderFactory,
+      JwksCacheSettings settings) {
+    this(jwksConfiguration, jwkProviderFactory, settings, defaultLookupExecutor());
+  }
 
+  /**
+   * Creates the cache used by the application. Providers are asked about unknown key ids in
+   * parallel on the executor qualified {@value #JWKS_EXECUTOR_QUALIFIER} when the application
+   * defines one (for example a virtual thread per task executor), otherwise on a small pool of
+   * daemon threads.
+   */
+  @Autowired
   public JwksCache(
       @Qualifier("jwksConfiguration") List<JwksConfiguration> jwksConfiguration,
-      JwkProviderFactory jwkProviderFactory) {
+      JwkProviderFactory jwkProviderFactory,
+      JwksCacheSettings settings,
+      @Qualifier(JWKS_EXECUTOR_QUALIFIER) ObjectProvider<Executor> lookupExecutor) {
+    this(jwksConfiguration, jwkProviderFactory, settings,
+        lookupExecutor.getIfAvailable(JwksCache::defaultLookupExecutor));
+  }
+
+  public JwksCache(
+      List<JwksConfiguration> jwksConfiguration,
+      JwkProviderFactory jwkProviderFactory,
+      JwksCacheSettings settings,
+      Executor lookupExecutor) {
     allJwkProviders = jwksConfiguration.stream()
         .map(jwkProviderFactory::newInstance)
         .toList();
-    cachedJwkProviders = new ArrayList<>();
+    jwkProvidersByKid = Caffeine.newBuilder()
+        .maximumSize(settings.getMaxIndexedKeys())
+        .build();
+    unknownKids = Caffeine.newBuilder()
+        .maximumSize(settings.getMaxIndexedKeys())
+        .expireAfterWrite(settings.getUnknownKeyCacheDuration())
+        .build();
+    decodedKeys = Caffeine.newBuilder()
+        .maximumSize((long) settings.getMaxIndexedKeys() * Math.max(1, allJwkProviders.size()))
+        .build();
+    scans = new ConcurrentHashMap<>();
+    lastUnknownKeyFetch = new IdentityHashMap<>();
+    allJwkProviders.forEach(
+        jwkProvider -> lastUnknownKeyFetch.put(jwkProvider, new AtomicLong(neverFetched())));
+    minRefetchIntervalNanos = settings.getMinRefetchInterval().toNanos();
+    keyLookupTimeoutNanos = settings.getKeyLookupTimeout().toNanos();
+    this.lookupExecutor = lookupExecutor;
   }
 
   public List<KeyAndClaims> getPublicKeys(String kid) {
     try {
-      ArrayList<KeyAndClaims> keyAndClaims = new ArrayList<>();
       List<ClaimsAwareJwkProvider> jwkProviders = getJwkFromProviders(kid);
+      List<KeyAndClaims> keyAndClaims = new ArrayList<>(jwkProviders.size());
 
       for (ClaimsAwareJwkProvider jwkProvider : jwkProviders) {
-        Jwk jwk = jwkProvider.get(kid);
-        keyAndClaims.add(
-            KeyAndClaims.builder()
-                .aud(jwkProvider.getAudience())
-                .iss(jwkProvider.getIssuer())
-                .key(jwk.getPublicKey())
-                .build());
+        keyAndClaims.add(decodedKey(jwkProvider, kid, indexedKey(jwkProvider, kid)));
       }
       return keyAndClaims;
     } catch (JwkException exception) {
@@ -50,34 +124,249 @@ public class JwksCache {
     }
   }
 
+  /**
+   * Reloads the keys of every provider so that request threads find them already cached. A
+   * provider whose jwks url cannot be reached keeps its last known keys.
+   */
+  public void refreshKeys() {
+    for (ClaimsAwareJwkProvider jwkProvider : allJwkProviders) {
+      jwkProvider.refresh().forEach(kid -> retireKey(jwkProvider, kid));
+    }
+  }
+
+  private Jwk indexedKey(ClaimsAwareJwkProvider jwkProvider, String kid) throws JwkException {
+    try {
+      return jwkProvider.get(kid);
+    } catch (SigningKeyNotFoundException exception) {
+      // dropped by a background reload, so stop asking the provider on every request
+      retireKey(jwkProvider, kid);
+      throw exception;
+    }
+  }
+
+  /**
+   * Removes a provider that no longer publishes a kid from the index. Once no provider is left the
+   * kid is remembered as unknown, so requests signed with it fail without a fetch.
+   */
+  private void retireKey(ClaimsAwareJwkProvider jwkProvider, String kid) {
+    decodedKeys.invalidate(new ProviderKey(jwkProvider, kid));
+    AtomicBoolean lastProvider = new AtomicBoolean();
+    jwkProvidersByKid.asMap().computeIfPresent(kid, (indexedKid, jwkProviders) -> {
+      List<ClaimsAwareJwkProvider> publishing = new ArrayList<>(jwkProviders);
+      publishing.remove(jwkProvider);
+      lastProvider.set(publishing.isEmpty());
+      return publishing.isEmpty() ? null : List.copyOf(publishing);
+    });
+    if (lastProvider.get()) {
+      unknownKids.put(kid, Boolean.TRUE);
+    }
+    LOGGER.debug("Key {} is no longer published by {}", kid, jwkProvider.getIssuer());
+  }
+
+  private KeyAndClaims decodedKey(ClaimsAwareJwkProvider jwkProvider, String kid, Jwk jwk) {
+    // decoding the modulus and exponent is only repeated once the provider reloads the jwk, and
+    // the common case of an unchanged jwk is answered without locking the entry
+    ProviderKey providerKey = new ProviderKey(jwkProvider, kid);
+    DecodedKey cached = decodedKeys.getIfPresent(providerKey);
+    if (cached != null && cached.jwk() == jwk) {
+      return cached.keyAndClaims();
+    }
+    return decodedKeys.asMap().compute(providerKey,
+        (key, decodedKey) -> decodedKey != null && decodedKey.jwk() == jwk
+            ? decodedKey
+            : new DecodedKey(jwk, decode(jwkProvider, jwk)))
+        .keyAndClaims();
+  }
+
+  private KeyAndClaims decode(ClaimsAwareJwkProvider jwkProvider, Jwk jwk) {
+    try {
+      return KeyAndClaims.builder()
+          .aud(jwkProvider.getAudience())
+          .iss(jwkProvider.getIssuer())
+          .key(jwk.getPublicKey())
+          .claimsVerifier(jwkProvider.getClaimsVerifier())
+          .build();
+    } catch (InvalidPublicKeyException exception) {
+      LOGGER.error("Unable to get a public signing certificate for the id token", exception);
+      throw new InsSecurityException("Invalid security configuration");
+    }
+  }
+
+  int indexedKeyCount() {
+    jwkProvidersByKid.cleanUp();
+    return (int) jwkProvidersByKid.estimatedSize();
+  }
+
   private List<ClaimsAwareJwkProvider> getJwkFromProviders(String kid) {
-    List<ClaimsAwareJwkProvider> claimsAwareJwkProviders =
-        cachedJwkProviders.stream()
-            .filter(j -> j.containsKey(kid))
-            .map(j -> j.get(kid))
-            .toList();
+    List<ClaimsAwareJwkProvider> claimsAwareJwkProviders = jwkProvidersByKid.getIfPresent(kid);
+    if (claimsAwareJwkProviders != null) {
+      return claimsAwareJwkProviders;
+    }
+    if (unknownKids.getIfPresent(kid) != null) {
+      LOGGER.debug("Key {} was not found by any provider when recently scanned", kid);
+      throw unknownKeyException();
+    }
+    return coalescedScan(kid);
+  }
+
+  private List<ClaimsAwareJwkProvider> coalescedScan(String kid) {
+    CompletableFuture<List<ClaimsAwareJwkProvider>> scan = new CompletableFuture<>();
+    CompletableFuture<List<ClaimsAwareJwkProvider>> inProgress = scans.putIfAbsent(kid, scan);
+    if (inProgress != null) {
+      return awaitScan(inProgress);
+    }
+    try {
+      // another thread may have completed a scan between the index lookup and registering ours
+      List<ClaimsAwareJwkProvider> claimsAwareJwkProviders = jwkProvidersByKid.getIfPresent(kid);
+      if (claimsAwareJwkProviders == null) {
+        ScanResult scanResult = scanProviders(kid);
+        claimsAwareJwkProviders = scanResult.providers();
+        if (scanResult.complete()) {
+          jwkProvidersByKid.put(kid, claimsAwareJwkProviders);
+        }
+      }
+      scan.complete(claimsAwareJwkProviders);
+      return claimsAwareJwkProviders;
+    } catch (RuntimeException exception) {
+      scan.completeExceptionally(exception);
+      throw exception;
+    } finally {
+      scans.remove(kid, scan);
+    }
+  }
 
-    return claimsAwareJwkProviders.isEmpty() ? scanProviders(kid) : claimsAwareJwkProviders;
+  private static <T> T awaitScan(CompletableFuture<T> scan) {
+    try {
+      return scan.join();
+    } catch (CompletionException exception) {
+      if (exception.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw exception;
+    }
   }
 
-  private List<ClaimsAwareJwkProvider> scanProviders(String kid) {
+  private ScanResult scanProviders(String kid) {
+    long scanStarted = System.nanoTime();
+    List<ClaimsAwareJwkProvider> queriedProviders = new ArrayList<>();
+    // throttled providers are not asked to fetch, but still answer from the keys they have cached
     List<ClaimsAwareJwkProvider> claimsAwareJwkProviders = new ArrayList<>();
+    boolean skippedProvider = false;
     for (ClaimsAwareJwkProvider jwkProvider : allJwkProviders) {
-      try {
-        jwkProvider.get(kid);
-        HashMap<String, ClaimsAwareJwkProvider> claimsAwareJwkProviderMap = new HashMap<>();
-        claimsAwareJwkProviderMap.put(kid, jwkProvider);
-        cachedJwkProviders.add(claimsAwareJwkProviderMap);
+      if (!isRefetchThrottled(jwkProvider, scanStarted)) {
+        queriedProviders.add(jwkProvider);
+      } else if (jwkProvider.getIfPresent(kid) != null) {
         claimsAwareJwkProviders.add(jwkProvider);
-      } catch (JwkException exception) {
-        LOGGER.debug("Provider {} does not contain key {}", jwkProvider.getIssuer(), kid);
-        LOGGER.debug("JwkProvider throw exception", exception);
+      } else {
+        LOGGER.debug("Provider {} was recently asked for an unknown key", jwkProvider.getIssuer());
+        skippedProvider = true;
+      }
+    }
+
+    // always on the executor, even for a single provider, so that the lookup deadline applies
+    List<CompletableFuture<Boolean>> lookups = new ArrayList<>(queriedProviders.size());
+    for (ClaimsAwareJwkProvider jwkProvider : queriedProviders) {
+      lookups.add(
+          CompletableFuture.supplyAsync(() -> publishesKey(jwkProvider, kid), lookupExecutor));
+    }
+    boolean allAnswered = awaitLookups(kid, lookups, scanStarted);
+
+    for (int i = 0; i < lookups.size(); i++) {
+      CompletableFuture<Boolean> lookup = lookups.get(i);
+      if (lookup.isDone() && Boolean.TRUE.equals(awaitScan(lookup))) {
+        claimsAwareJwkProviders.add(queriedProviders.get(i));
       }
     }
+
+    boolean complete = allAnswered && !skippedProvider;
     if (claimsAwareJwkProviders.isEmpty()) {
       LOGGER.error("Unable to find any provider for key {}", kid);
-      throw new InsSecurityException("Invalid security configuration");
+      if (complete) {
+        // a kid skipped by a throttled provider may yet be published by it, so only cache
+        // the miss when every provider answered
+        unknownKids.put(kid, Boolean.TRUE);
+      }
+      queriedProviders.forEach(
+          jwkProvider -> lastUnknownKeyFetch.get(jwkProvider).set(scanStarted));
+      throw unknownKeyException();
+    }
+    return new ScanResult(List.copyOf(claimsAwareJwkProviders), complete);
+  }
+
+  private boolean publishesKey(ClaimsAwareJwkProvider jwkProvider, String kid) {
+    try {
+      jwkProvider.get(kid);
+      return true;
+    } catch (JwkException exception) {
+      LOGGER.debug("Provider {} does not contain key {}", jwkProvider.getIssuer(), kid);
+      LOGGER.debug("JwkProvider throw exception", exception);
+      return false;
+    }
+  }
+
+  private boolean awaitLookups(
+      String kid, List<CompletableFuture<Boolean>> lookups, long scanStarted) {
+    long remainingNanos = keyLookupTimeoutNanos - (System.nanoTime() - scanStarted);
+    try {
+      CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0]))
+          .get(remainingNanos, TimeUnit.NANOSECONDS);
+      return true;
+    } catch (TimeoutException exception) {
+      LOGGER.warn("Timed out asking the jwks providers for key {}", kid);
+      return false;
+    } catch (ExecutionException exception) {
+      // the failed lookup is rethrown when its result is read
+      return true;
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private boolean isRefetchThrottled(ClaimsAwareJwkProvider jwkProvider, long now) {
+    return now - lastUnknownKeyFetch.get(jwkProvider).get() < minRefetchIntervalNanos;
+  }
+
+  private long neverFetched() {
+    // far enough in the past that the first lookup is never throttled, without overflowing
+    return System.nanoTime() - Long.MAX_VALUE / 2;
+  }
+
+  /**
+   * Returns the pool of daemon threads shared by the lookups and background key reloads of every
+   * cache and provider that is not given an executor.
+   */
+  static Executor defaultLookupExecutor() {
+    return DefaultLookupExecutor.INSTANCE;
+  }
+
+  private static final class DefaultLookupExecutor {
+
+    private static final Executor INSTANCE = create();
+
+    private static Executor create() {
+      CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("jwks-lookup-");
+      threadFactory.setDaemon(true);
+      // when every thread is busy the caller asks the provider itself rather than queueing
+      return new ThreadPoolExecutor(0, MAX_LOOKUP_THREADS, 60, TimeUnit.SECONDS,
+          new SynchronousQueue<>(), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
     }
-    return claimsAwareJwkProviders;
+  }
+
+  private InsSecurityException unknownKeyException() {
+    return new InsSecurityException("Invalid security configuration");
+  }
+
+  /**
+   * The providers found to publish a kid. A scan that skipped a throttled provider without the kid
+   * cached is incomplete and is not added to the index.
+   */
+  private record ScanResult(List<ClaimsAwareJwkProvider> providers, boolean complete) {
+  }
+
+  private record ProviderKey(ClaimsAwareJwkProvider provider, String kid) {
+  }
+
+  private record DecodedKey(Jwk jwk, KeyAndClaims keyAndClaims) {
   }
 }
@@ -0,0 +1,46 @@
+package uk.gov.defra.tracesx.common.security.jwks;
+
+import java.time.Duration;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * Tuning for {@link JwksCache}. Every setting has a default so that a cache built without explicit
+ * settings behaves sensibly.
+ */
+@Getter
+@Builder
+@EqualsAndHashCode
+public class JwksCacheSettings {
+
+  public static final int DEFAULT_MAX_INDEXED_KEYS = 100;
+  public static final int DEFAULT_UNKNOWN_KEY_CACHE_SECONDS = 30;
+  public static final int DEFAULT_MIN_REFETCH_INTERVAL_SECONDS = 5;
+  public static final int DEFAULT_KEY_LOOKUP_TIMEOUT_MILLIS = 10_000;
+
+  /** Maximum number of key ids remembered in the kid to provider index. */
+  @Builder.Default
+  private int maxIndexedKeys = DEFAULT_MAX_INDEXED_KEYS;
+
+  /** How long a kid that no provider publishes is rejected without asking the providers again. */
+  @Builder.Default
+  private Duration unknownKeyCacheDuration =
+      Duration.ofSeconds(DEFAULT_UNKNOWN_KEY_CACHE_SECONDS);
+
+  /**
+   * Minimum time between two lookups of unknown key ids against the same provider. Once a scan
+   * has found a kid in none of the providers, further unknown kids are rejected without a fetch
+   * until this interval has passed.
+   */
+  @Builder.Default
+  private Duration minRefetchInterval = Duration.ofSeconds(DEFAULT_MIN_REFETCH_INTERVAL_SECONDS);
+
+  /** Overall deadline for asking every provider whether it publishes a kid. */
+  @Builder.Default
+  private Duration keyLookupTimeout = Duration.ofMillis(DEFAULT_KEY_LOOKUP_TIMEOUT_MILLIS);
+
+  public static JwksCacheSettings defaults() {
+    return JwksCacheSettings.builder().build();
+  }
+}
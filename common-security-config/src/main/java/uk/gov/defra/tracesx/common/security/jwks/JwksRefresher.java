@@ -0,0 +1,74 @@
+package uk.gov.defra.tracesx.common.security.jwks;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Warms the jwks keys once the application has started and then reloads them in the background,
+ * ahead of the key expiry, so that validating a token does not wait on the jwks urls. The periodic
+ * refresh runs on a thread of its own, so it does not depend on the application enabling
+ * scheduling.
+ */
+@Component
+public class JwksRefresher implements DisposableBean {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(JwksRefresher.class);
+
+  private final JwksCache jwksCache;
+
+  private final ScheduledExecutorService scheduler;
+
+  @Value("${spring.security.jwt.keyRefreshMinutes:30}")
+  private long keyRefreshMinutes = 30;
+
+  private boolean scheduled;
+
+  @Autowired
+  public JwksRefresher(JwksCache jwksCache) {
+    this.jwksCache = jwksCache;
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("jwks-refresh-");
+    threadFactory.setDaemon(true);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void prefetchKeys() {
+    LOGGER.info("Prefetching jwks keys");
+    jwksCache.refreshKeys();
+    scheduleRefresh();
+  }
+
+  public void refreshKeys() {
+    LOGGER.debug("Refreshing jwks keys");
+    try {
+      jwksCache.refreshKeys();
+    } catch (RuntimeException exception) {
+      // an escaping exception would cancel every later refresh
+      LOGGER.warn("Unable to refresh jwks keys", exception);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    scheduler.shutdownNow();
+  }
+
+  private synchronized void scheduleRefresh() {
+    if (scheduled) {
+      return;
+    }
+    scheduler.scheduleWithFixedDelay(
+        this::refreshKeys, keyRefreshMinutes, keyRefreshMinutes, TimeUnit.MINUTES);
+    scheduled = true;
+  }
+}
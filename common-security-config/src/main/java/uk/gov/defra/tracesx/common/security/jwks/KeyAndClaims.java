@@ -1,15 +1,32 @@
 package uk.gov.defra.tracesx.common.security.jwks;
 
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
 import java.security.Key;
+import java.security.interfaces.RSAPublicKey;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 
-@Builder
 @Getter
 @EqualsAndHashCode
 public class KeyAndClaims {
-  private String iss;
-  private String aud;
-  private Key key;
+  private final String iss;
+  private final String aud;
+  private final Key key;
+  // thread safe, so a single instance is shared by every request signed with this key
+  @EqualsAndHashCode.Exclude
+  private final JWSVerifier verifier;
+  @EqualsAndHashCode.Exclude
+  private final ClaimsVerifier claimsVerifier;
+
+  @Builder
+  private KeyAndClaims(String iss, String aud, Key key, ClaimsVerifier claimsVerifier) {
+    this.iss = iss;
+    this.aud = aud;
+    this.key = key;
+    this.verifier = key instanceof RSAPublicKey rsaPublicKey
+        ? new RSASSAVerifier(rsaPublicKey) : null;
+    this.claimsVerifier = claimsVerifier != null ? claimsVerifier : new ClaimsVerifier(iss, aud);
+  }
 }
@@ -5,21 +5,21 @@ import com.nimbusds.jose.JWSVerifier;
 import com.nimbusds.jose.crypto.RSASSAVerifier;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
-import com.nimbusds.jwt.proc.BadJWTException;
-import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
-import java.security.Key;
 import java.security.interfaces.RSAPublicKey;
 import java.text.ParseException;
-import java.util.Map;
-import java.util.Set;
+import java.time.Instant;
+import java.util.List;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import uk.gov.defra.tracesx.common.exceptions.JwtAuthenticationException;
 import uk.gov.defra.tracesx.common.security.IdTokenUserDetails;
+import uk.gov.defra.tracesx.common.security.jwks.ClaimsVerificationResult;
 import uk.gov.defra.tracesx.common.security.jwks.JwksCache;
 import uk.gov.defra.tracesx.common.security.jwks.KeyAndClaims;
+import uk.gov.defra.tracesx.common.security.jwt.VerifiedTokenCache.VerifiedToken;
 
 @Component
 public class JwtTokenValidator {
@@ -28,37 +28,60 @@ public class JwtTokenValidator {
 
   private final JwtUserMapper jwtUserMapper;
   private final JwksCache jwksCache;
+  private final VerifiedTokenCache verifiedTokenCache;
 
-  private enum VerificationResult {
-    SUCCESS,
-    INVALID_ISSUER,
-    INVALID_AUDIENCE,
-    EXPIRED,
-    GENERAL_ERROR
+  public JwtTokenValidator(JwtUserMapper jwtUserMapper, JwksCache jwksCache) {
+    this(jwtUserMapper, jwksCache,
+        new VerifiedTokenCache(true, VerifiedTokenCache.DEFAULT_MAX_SIZE));
   }
 
-  public JwtTokenValidator(JwtUserMapper jwtUserMapper, JwksCache jwksCache) {
+  @Autowired
+  public JwtTokenValidator(
+      JwtUserMapper jwtUserMapper, JwksCache jwksCache, VerifiedTokenCache verifiedTokenCache) {
     this.jwtUserMapper = jwtUserMapper;
     this.jwksCache = jwksCache;
+    this.verifiedTokenCache = verifiedTokenCache;
   }
 
   public IdTokenUserDetails validateToken(String idToken) {
-    Map<String, Object> decoded = decode(idToken);
-    return jwtUserMapper.createUser(decoded, idToken);
+    VerifiedToken cached = verifiedTokenCache.get(idToken);
+    if (cached != null) {
+      if (isSigningKeyCurrent(cached)) {
+        return cached.userDetails();
+      }
+      LOGGER.info("Signing key {} has been rotated, verifying the JWT again.", cached.kid());
+      verifiedTokenCache.invalidate(idToken);
+    }
+
+    VerifiedToken verified = decode(idToken);
+    verifiedTokenCache.put(idToken, verified);
+    return verified.userDetails();
   }
 
-  private Map<String, Object> decode(String idToken) {
+  private boolean isSigningKeyCurrent(VerifiedToken verifiedToken) {
+    for (KeyAndClaims keyAndClaim : jwksCache.getPublicKeys(verifiedToken.kid())) {
+      if (verifiedToken.key().equals(keyAndClaim.getKey())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private VerifiedToken decode(String idToken) {
     try {
       SignedJWT jwt = SignedJWT.parse(idToken);
       String kid = getKeyId(jwt);
+      JWTClaimsSet claimsSet = jwt.getJWTClaimsSet();
 
-      for (KeyAndClaims keyAndClaim : jwksCache.getPublicKeys(kid)) {
-        if (verifySignature(jwt, keyAndClaim.getKey())) {
-          JWTClaimsSet claimsSet = jwt.getJWTClaimsSet();
-          VerificationResult result = verifyClaims(claimsSet, keyAndClaim);
+      for (KeyAndClaims keyAndClaim : candidateKeys(kid, claimsSet)) {
+        if (verifySignature(jwt, keyAndClaim)) {
+          ClaimsVerificationResult result = verifyClaims(claimsSet, keyAndClaim);
 
-          if (result == VerificationResult.SUCCESS) {
-            return claimsSet.getClaims();
+          if (result == ClaimsVerificationResult.SUCCESS) {
+            IdTokenUserDetails userDetails =
+                jwtUserMapper.createUser(claimsSet.getClaims(), idToken);
+            Instant expiresAt = claimsSet.getExpirationTime().toInstant();
+            return new VerifiedToken(kid, keyAndClaim.getKey(), expiresAt, userDetails);
           } else {
             LOGGER.error("JWT verification failed: {}", result);
           }
@@ -82,8 +105,25 @@ public class JwtTokenValidator {
     return kid;
   }
 
-  private boolean verifySignature(SignedJWT jwt, Key key) {
-    JWSVerifier verifier = new RSASSAVerifier((RSAPublicKey) key);
+  /**
+   * The keys of the jwks configurations matching the (not yet verified) issuer and audience of the
+   * token, so that a signature is normally verified against a single key.
+   */
+  private List<KeyAndClaims> candidateKeys(String kid, JWTClaimsSet claimsSet) {
+    List<KeyAndClaims> candidates = jwksCache.getPublicKeys(kid).stream()
+        .filter(keyAndClaims -> keyAndClaims.getClaimsVerifier().appliesTo(claimsSet))
+        .toList();
+    if (candidates.isEmpty()) {
+      LOGGER.error("No jwks configuration for issuer {} and audience {} publishes key {}.",
+          claimsSet.getIssuer(), claimsSet.getAudience(), kid);
+    }
+    return candidates;
+  }
+
+  private boolean verifySignature(SignedJWT jwt, KeyAndClaims keyAndClaims) {
+    JWSVerifier verifier = keyAndClaims.getVerifier() != null
+        ? keyAndClaims.getVerifier()
+        : new RSASSAVerifier((RSAPublicKey) keyAndClaims.getKey());
     try {
       return jwt.verify(verifier);
     } catch (JOSEException exception) {
@@ -92,33 +132,12 @@ public class JwtTokenValidator {
     }
   }
 
-  private VerificationResult verifyClaims(JWTClaimsSet claims, KeyAndClaims keyAndClaims) {
-    try {
-      new DefaultJWTClaimsVerifier<>(
-          new JWTClaimsSet.Builder()
-              .issuer(keyAndClaims.getIss())
-              .audience(keyAndClaims.getAud())
-              .build(),
-          Set.of("exp"))
-          .verify(claims, null);
-
+  private ClaimsVerificationResult verifyClaims(JWTClaimsSet claims, KeyAndClaims keyAndClaims) {
+    ClaimsVerificationResult result = keyAndClaims.getClaimsVerifier().verify(claims);
+    if (result == ClaimsVerificationResult.SUCCESS) {
       LOGGER.info("JWT claims verified successfully.");
-      return VerificationResult.SUCCESS;
-    } catch (BadJWTException exception) {
-      if (exception.getMessage().contains("issuer")) {
-        LOGGER.error("Invalid issuer claim in JWT.", exception);
-        return VerificationResult.INVALID_ISSUER;
-      } else if (exception.getMessage().contains("audience")) {
-        LOGGER.error("Invalid audience claim in JWT.", exception);
-        return VerificationResult.INVALID_AUDIENCE;
-      } else if (exception.getMessage().contains("exp")) {
-        LOGGER.error("JWT has expired.", exception);
-        return VerificationResult.EXPIRED;
-      } else {
-        LOGGER.error("JWT verification failed due to unknown error.", exception);
-        return VerificationResult.GENERAL_ERROR;
-      }
     }
+    return result;
   }
 
   private JwtAuthenticationException unauthorizedException() {
@@ -24,6 +24,7 @@ public class JwtUserMapper {
   private static final String CENTRAL_COMPETENT_AUTHORITY = "cca";
   private static final String FAMILY_NAME = "family_name";
   private static final String GIVEN_NAME = "given_name";
+  private static final String ISSUER = "iss";
 
   private final RoleToAuthorityMapper roleToAuthorityMapper;
 
@@ -43,6 +44,7 @@ public class JwtUserMapper {
         .authorities(getAuthorities(decoded))
         .customerOrganisationId(getClaim(CUSTOMER_ORGANISATION_ID, decoded, false))
         .centralCompetentAuthority(getClaim(CENTRAL_COMPETENT_AUTHORITY, decoded, false))
+        .issuer(getClaim(ISSUER, decoded, false))
         .build();
   }
 
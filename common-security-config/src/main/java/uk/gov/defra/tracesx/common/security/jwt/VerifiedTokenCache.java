@@ -0,0 +1,114 @@
+package uk.gov.defra.tracesx.common.security.jwt;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.gov.defra.tracesx.common.security.IdTokenUserDetails;
+
+/**
+ * Bounded cache of id tokens that have already passed signature and claims verification. Entries
+ * are keyed by a SHA-256 digest of the raw token and never outlive the token's own expiry, so a
+ * caller presenting the same token again skips parsing, RSA verification and user mapping.
+ */
+@Component
+public class VerifiedTokenCache {
+
+  static final long DEFAULT_MAX_SIZE = 10_000;
+
+  private final boolean enabled;
+  private final Cache<String, VerifiedToken> cache;
+
+  @Autowired
+  public VerifiedTokenCache(
+      @Value("${spring.security.jwt.tokenCacheEnabled:true}") boolean enabled,
+      @Value("${spring.security.jwt.tokenCacheMaxSize:" + DEFAULT_MAX_SIZE + "}") long maxSize) {
+    this.enabled = enabled;
+    this.cache = Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfter(new TokenExpiry())
+        .build();
+  }
+
+  /**
+   * Returns the verified token previously stored for this raw token, or null when there is none
+   * or it has expired.
+   */
+  VerifiedToken get(String idToken) {
+    if (!enabled) {
+      return null;
+    }
+    VerifiedToken verifiedToken = cache.getIfPresent(digest(idToken));
+    // guard against the (theoretical) case of two tokens sharing a digest
+    if (verifiedToken != null && idToken.equals(verifiedToken.userDetails().getIdToken())) {
+      return verifiedToken;
+    }
+    return null;
+  }
+
+  void put(String idToken, VerifiedToken verifiedToken) {
+    if (enabled && verifiedToken.expiresAt().isAfter(Instant.now())) {
+      cache.put(digest(idToken), verifiedToken);
+    }
+  }
+
+  void invalidate(String idToken) {
+    cache.invalidate(digest(idToken));
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  long size() {
+    cache.cleanUp();
+    return cache.estimatedSize();
+  }
+
+  private static String digest(String idToken) {
+    try {
+      MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+      byte[] hash = messageDigest.digest(idToken.getBytes(StandardCharsets.UTF_8));
+      return Base64.getEncoder().encodeToString(hash);
+    } catch (NoSuchAlgorithmException exception) {
+      throw new IllegalStateException("SHA-256 is not supported by this JVM", exception);
+    }
+  }
+
+  /**
+   * A token that passed verification, together with the key id and signing key used to verify it
+   * so that the entry can be discarded when that key is rotated out of the JWKS.
+   */
+  record VerifiedToken(
+      String kid, Key key, Instant expiresAt, IdTokenUserDetails userDetails) {
+  }
+
+  private static class TokenExpiry implements Expiry<String, VerifiedToken> {
+
+    @Override
+    public long expireAfterCreate(String key, VerifiedToken value, long currentTime) {
+      return Math.max(0, Duration.between(Instant.now(), value.expiresAt()).toNanos());
+    }
+
+    @Override
+    public long expireAfterUpdate(
+        String key, VerifiedToken value, long currentTime, long currentDuration) {
+      return expireAfterCreate(key, value, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(
+        String key, VerifiedToken value, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package uk.gov.defra.tracesx.common.security.reactive;
+
+import static uk.gov.defra.tracesx.common.security.filter.PermissionsFilter.permissionsAuthentication;
+import static uk.gov.defra.tracesx.common.security.filter.PermissionsFilter.requireRoles;
+
+import java.util.List;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.core.Authentication;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import uk.gov.defra.tracesx.common.permissions.PermissionsCache;
+import uk.gov.defra.tracesx.common.security.IdTokenUserDetails;
+import uk.gov.defra.tracesx.common.security.conversation.id.ConversationContext;
+import uk.gov.defra.tracesx.common.security.conversation.id.ConversationWebFilter;
+import uk.gov.defra.tracesx.common.security.jwt.JwtTokenValidator;
+
+/**
+ * Authenticates the id token read by {@link IdTokenServerAuthenticationConverter} with the
+ * permissions of its roles, as the {@code JwtTokenFilter} and {@code PermissionsFilter} do on the
+ * servlet stack. The token is validated on the given scheduler, as an unknown signing key is
+ * fetched from its jwks url, and roles missing from the permissions cache are fetched with the
+ * non-blocking permissions client, with the conversation put in the Reactor context by the
+ * {@link ConversationWebFilter}.
+ */
+public class IdTokenReactiveAuthenticationManager implements ReactiveAuthenticationManager {
+
+  private final JwtTokenValidator jwtTokenValidator;
+  private final PermissionsCache permissionsCache;
+  private final Scheduler validationScheduler;
+
+  public IdTokenReactiveAuthenticationManager(
+      JwtTokenValidator jwtTokenValidator,
+      PermissionsCache permissionsCache,
+      Scheduler validationScheduler) {
+    this.jwtTokenValidator = jwtTokenValidator;
+    this.permissionsCache = permissionsCache;
+    this.validationScheduler = validationScheduler;
+  }
+
+  @Override
+  public Mono<Authentication> authenticate(Authentication authentication) {
+    String idToken = (String) authentication.getPrincipal();
+    String authorisationToken = (String) authentication.getCredentials();
+    return Mono.fromCallable(() -> jwtTokenValidator.validateToken(idToken))
+        .subscribeOn(validationScheduler)
+        .flatMap(userDetails -> withPermissionsOf(userDetails, authorisationToken));
+  }
+
+  private Mono<Authentication> withPermissionsOf(
+      IdTokenUserDetails userDetails, String authorisationToken) {
+    List<String> roles = requireRoles(userDetails);
+    // the permissions client reads the conversation headers from the calling thread
+    return ConversationWebFilter.conversation()
+        .flatMap(conversation -> Mono.fromFuture(() -> ConversationContext.callWith(conversation,
+            () -> permissionsCache.grantedAuthoritiesAsync(
+                userDetails, roles, authorisationToken))))
+        .<Authentication>map(permissions -> permissionsAuthentication(userDetails, permissions));
+  }
+}
@@ -0,0 +1,35 @@
+package uk.gov.defra.tracesx.common.security.reactive;
+
+import static org.springframework.http.HttpHeaders.AUTHORIZATION;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import org.springframework.security.web.server.authentication.ServerAuthenticationConverter;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reads the id token from the bearer token of the {@code Authorization} header. The token is the
+ * principal of the unauthenticated {@link Authentication}, and the whole header its credentials,
+ * as the permissions service is called with it.
+ */
+public class IdTokenServerAuthenticationConverter implements ServerAuthenticationConverter {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(IdTokenServerAuthenticationConverter.class);
+  private static final String BEARER_PREFIX = "bearer ";
+
+  @Override
+  public Mono<Authentication> convert(ServerWebExchange exchange) {
+    String bearerToken = exchange.getRequest().getHeaders().getFirst(AUTHORIZATION);
+    if (bearerToken != null && bearerToken.toLowerCase().startsWith(BEARER_PREFIX)) {
+      return Mono.just(new PreAuthenticatedAuthenticationToken(
+          bearerToken.substring(BEARER_PREFIX.length()), bearerToken));
+    }
+    LOGGER.error("A 'Bearer' token was not found on the 'Authorization' header.");
+    return Mono.error(new AuthenticationCredentialsNotFoundException("Missing credentials"));
+  }
+}
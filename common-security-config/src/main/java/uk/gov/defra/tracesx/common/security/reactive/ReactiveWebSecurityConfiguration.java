@@ -0,0 +1,95 @@
+package uk.gov.defra.tracesx.common.security.reactive;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.config.annotation.method.configuration.EnableReactiveMethodSecurity;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.SecurityWebFiltersOrder;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.ServerAuthenticationEntryPoint;
+import org.springframework.security.web.server.authentication.AuthenticationWebFilter;
+import org.springframework.security.web.server.authentication.HttpStatusServerEntryPoint;
+import org.springframework.security.web.server.authentication.ServerAuthenticationEntryPointFailureHandler;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatchers;
+import reactor.core.scheduler.Schedulers;
+import uk.gov.defra.tracesx.common.permissions.PermissionsCache;
+import uk.gov.defra.tracesx.common.security.WebSecurityConfiguration;
+import uk.gov.defra.tracesx.common.security.conversation.id.ConversationWebFilter;
+import uk.gov.defra.tracesx.common.security.jwt.JwtTokenValidator;
+
+/**
+ * Reactive counterpart of {@code WebSecurityConfiguration}, used when the service runs on the
+ * WebFlux stack ({@code spring.main.web-application-type=reactive}). Requests to the service are
+ * authenticated with the id token and the permissions of its roles, and the conversation headers
+ * are put in the Reactor context of every request, including those to the public paths.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+@EnableWebFluxSecurity
+@EnableReactiveMethodSecurity
+public class ReactiveWebSecurityConfiguration {
+
+  private static final int PUBLIC_PATH_SECURITY_ORDER = 1;
+  private static final int SERVICE_PATH_SECURITY_ORDER = 3;
+
+  private final JwtTokenValidator jwtTokenValidator;
+  private final PermissionsCache permissionsCache;
+
+  @Value(WebSecurityConfiguration.PUBLIC_PATHS)
+  private String[] publicPaths;
+
+  public ReactiveWebSecurityConfiguration(
+      JwtTokenValidator jwtTokenValidator, PermissionsCache permissionsCache) {
+    this.jwtTokenValidator = jwtTokenValidator;
+    this.permissionsCache = permissionsCache;
+  }
+
+  @Bean
+  @Order(PUBLIC_PATH_SECURITY_ORDER)
+  public SecurityWebFilterChain publicWebFilterChain(ServerHttpSecurity http) {
+    return http
+        .securityMatcher(ServerWebExchangeMatchers.pathMatchers(publicPaths))
+        .authorizeExchange(authorize -> authorize.anyExchange().permitAll())
+        .csrf(ServerHttpSecurity.CsrfSpec::disable)
+        .securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+        .addFilterAt(new ConversationWebFilter(), SecurityWebFiltersOrder.FIRST)
+        .build();
+  }
+
+  @Bean
+  @Order(SERVICE_PATH_SECURITY_ORDER)
+  public SecurityWebFilterChain webFilterChain(ServerHttpSecurity http) {
+    return http
+        .authorizeExchange(authorize -> authorize.anyExchange().authenticated())
+        .csrf(ServerHttpSecurity.CsrfSpec::disable)
+        .httpBasic(ServerHttpSecurity.HttpBasicSpec::disable)
+        .formLogin(ServerHttpSecurity.FormLoginSpec::disable)
+        .exceptionHandling(exception -> exception.authenticationEntryPoint(unauthorized()))
+        .securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+        .addFilterAt(new ConversationWebFilter(), SecurityWebFiltersOrder.FIRST)
+        .addFilterAt(authenticationWebFilter(), SecurityWebFiltersOrder.AUTHENTICATION)
+        .build();
+  }
+
+  private AuthenticationWebFilter authenticationWebFilter() {
+    AuthenticationWebFilter filter = new AuthenticationWebFilter(
+        new IdTokenReactiveAuthenticationManager(
+            jwtTokenValidator, permissionsCache, Schedulers.boundedElastic()));
+    filter.setServerAuthenticationConverter(new IdTokenServerAuthenticationConverter());
+    filter.setAuthenticationFailureHandler(
+        new ServerAuthenticationEntryPointFailureHandler(unauthorized()));
+    filter.setSecurityContextRepository(NoOpServerSecurityContextRepository.getInstance());
+    return filter;
+  }
+
+  private static ServerAuthenticationEntryPoint unauthorized() {
+    return new HttpStatusServerEntryPoint(HttpStatus.UNAUTHORIZED);
+  }
+}
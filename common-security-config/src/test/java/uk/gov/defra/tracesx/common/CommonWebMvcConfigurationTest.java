@@ -3,21 +3,30 @@ package uk.gov.defra.tracesx.common;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.InstanceOfAssertFactories.ARRAY;
+import static uk.gov.defra.tracesx.common.permissions.PermissionsCache.CACHE_KEY;
 
 import com.microsoft.applicationinsights.TelemetryClient;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
+import java.time.Duration;
 import java.util.List;
 import org.apache.commons.lang3.reflect.FieldUtils;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.reactor.IOReactorStatus;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.cache.CacheManager;
+import org.springframework.cache.Cache;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.handler.MappedInterceptor;
+import uk.gov.defra.tracesx.common.security.jwks.JwksCacheSettings;
 import uk.gov.defra.tracesx.common.security.jwks.JwksConfiguration;
 
 @ExtendWith(MockitoExtension.class)
@@ -38,6 +47,12 @@ class CommonWebMvcConfigurationTest {
     FieldUtils.writeField(testee, CONNECTION_TIMEOUT_FIELD, CONNECTION_TIMEOUT, true);
     FieldUtils.writeField(testee, READ_TIMEOUT_FIELD, READ_TIMEOUT, true);
     FieldUtils.writeField(testee, SERVICE_URL_PATTERNS_FIELD, new MockServiceUrlPatterns(), true);
+    FieldUtils.writeField(testee, "permissionsServiceSocketConnectTimeout", 3, true);
+    FieldUtils.writeField(testee, "permissionsServiceMaxConnectionsPerRoute", 4, true);
+    FieldUtils.writeField(testee, "permissionsServiceMaxConnectionsTotal", 6, true);
+    FieldUtils.writeField(testee, "permissionsServiceConnectionTimeToLive", 60000L, true);
+    FieldUtils.writeField(testee, "permissionsServiceValidateAfterInactivity", 1000L, true);
+    FieldUtils.writeField(testee, "permissionsServiceKeepAlive", 5000L, true);
   }
 
   @Test
@@ -48,6 +63,27 @@ class CommonWebMvcConfigurationTest {
     assertThat(restTemplate.getMessageConverters()).isNotEmpty();
   }
 
+  @Test
+  void permissionsConnectionManager_ReturnsConfiguredPool_WhenCalled() {
+    try (PoolingHttpClientConnectionManager connectionManager =
+        testee.permissionsConnectionManager()) {
+      assertThat(connectionManager.getDefaultMaxPerRoute()).isEqualTo(4);
+      assertThat(connectionManager.getMaxTotal()).isEqualTo(6);
+      assertThat(connectionManager.getTotalStats().getMax()).isEqualTo(6);
+      assertThat(connectionManager.getTotalStats().getLeased()).isZero();
+    }
+  }
+
+  @Test
+  void permissionsAsyncHttpClient_ReturnsClient_WhenCalled() throws IOException {
+    CloseableHttpAsyncClient httpClient = testee.permissionsAsyncHttpClient();
+    assertThat(httpClient.getStatus())
+        .isNotIn(IOReactorStatus.SHUTTING_DOWN, IOReactorStatus.SHUT_DOWN);
+
+    httpClient.close();
+    assertThat(httpClient.getStatus()).isEqualTo(IOReactorStatus.SHUT_DOWN);
+  }
+
   @Test
   void addInterceptors_ReturnsInterceptors_WhenItemsAreAddedToRegistryAndAccessible()
       throws InvocationTargetException, IllegalAccessException, NoSuchMethodException{
@@ -96,6 +132,21 @@ class CommonWebMvcConfigurationTest {
         .hasMessageContaining("The comma-separated properties spring.security.jwt.[jwks, iss, aud] must all have the same number of elements.");
   }
 
+  @Test
+  void jwksCacheSettings_ReturnsConfiguredSettings_WhenCalled() throws IllegalAccessException {
+    FieldUtils.writeField(testee, "maxIndexedKeys", 7, true);
+    FieldUtils.writeField(testee, "unknownKeyCacheSeconds", 8, true);
+    FieldUtils.writeField(testee, "minRefetchIntervalSeconds", 9, true);
+    FieldUtils.writeField(testee, "keyLookupTimeoutMillis", 1500L, true);
+
+    JwksCacheSettings settings = testee.jwksCacheSettings();
+
+    assertThat(settings.getMaxIndexedKeys()).isEqualTo(7);
+    assertThat(settings.getUnknownKeyCacheDuration()).isEqualTo(Duration.ofSeconds(8));
+    assertThat(settings.getMinRefetchInterval()).isEqualTo(Duration.ofSeconds(9));
+    assertThat(settings.getKeyLookupTimeout()).isEqualTo(Duration.ofMillis(1500));
+  }
+
   @Test
   void telemetryClient_ReturnsInstance_WhenCalled() {
     //When
@@ -106,11 +157,54 @@ class CommonWebMvcConfigurationTest {
   }
 
   @Test
-  void cacheManager_ReturnsInstance_WhenCalled() {
-    //When
-    CacheManager cacheManager = testee.cacheManager();
+  void permissionsCacheSettings_ReturnBoundedCaffeineCacheRecordingStats_ByDefault()
+      throws IllegalAccessException {
+    FieldUtils.writeField(testee, "permissionsCacheMaximumSize", 2L, true);
+
+    Cache cache = testee.permissionsCacheSettings().newCache();
+    assertThat(cache).isInstanceOf(CaffeineCache.class);
+    assertThat(cache.getName()).isEqualTo(CACHE_KEY);
+    com.github.benmanes.caffeine.cache.Cache<Object, Object> nativeCache =
+        ((CaffeineCache) cache).getNativeCache();
+    for (int i = 0; i < 10; i++) {
+      cache.put("role" + i, "permissions");
+    }
+    cache.get("role9");
+    cache.get("unknown");
+    nativeCache.cleanUp();
+
+    assertThat(nativeCache.estimatedSize()).isLessThanOrEqualTo(2);
+    assertThat(nativeCache.policy().expireAfterWrite())
+        .hasValueSatisfying(expiry -> assertThat(expiry.getExpiresAfter())
+            .isEqualTo(Duration.ofHours(1)));
+    assertThat(nativeCache.stats().requestCount()).isEqualTo(2);
+  }
 
-    //Then
-    assertThat(cacheManager).isNotNull();
+  @Test
+  void permissionsCacheSettings_ExpireNoEarlierThanMaxStaleness_WhenExpiryIsShorter()
+      throws IllegalAccessException {
+    FieldUtils.writeField(testee, "permissionsCacheExpireAfterWriteMillis", 60_000L, true);
+    FieldUtils.writeField(testee, "maxStalenessMillis", Duration.ofHours(2).toMillis(), true);
+
+    assertThat(testee.permissionsCacheSettings().getExpireAfterWrite())
+        .isEqualTo(Duration.ofHours(2));
+  }
+
+  @Test
+  void permissionsCacheSettings_ReturnConcurrentMapCache_WhenTypeIsSimple() throws Exception {
+    FieldUtils.writeField(testee, "permissionsCacheType", "Simple", true);
+
+    assertThat(testee.permissionsCacheSettings().newCache())
+        .isInstanceOf(ConcurrentMapCache.class);
+  }
+
+  @Test
+  void permissionsCacheSettings_ThrowIllegalArgumentException_WhenTypeIsUnknown()
+      throws IllegalAccessException {
+    FieldUtils.writeField(testee, "permissionsCacheType", "redis", true);
+
+    assertThatThrownBy(testee::permissionsCacheSettings)
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("permissions.cache.type");
   }
 }
@@ -0,0 +1,73 @@
+package uk.gov.defra.tracesx.common.permissions;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import uk.gov.defra.tracesx.common.security.OrganisationGrantedAuthority;
+
+class GrantedPermissionsTest {
+
+  private final PermissionRegistry registry = new PermissionRegistry();
+
+  @Test
+  void grant_keepsTheOrderOfThePermissions() {
+    GrantedPermissions permissions = registry.grant(List.of("write", "read"));
+
+    assertThat(permissions).containsExactly(
+        new SimpleGrantedAuthority("write"), new SimpleGrantedAuthority("read"));
+    assertThat(permissions).isEqualTo(
+        List.of(new SimpleGrantedAuthority("write"), new SimpleGrantedAuthority("read")));
+  }
+
+  @Test
+  void grant_samePermissionGrantedTwice_sharesOneAuthority() {
+    GrantedPermissions first = registry.grant(List.of("read"));
+    GrantedPermissions second = registry.grant(List.of("write", "read"));
+
+    assertThat(second.get(1)).isSameAs(first.get(0));
+  }
+
+  @Test
+  void hasAuthority_answersFromTheGrantedPermissionsOnly() {
+    registry.grant(List.of("admin", "read", "write"));
+    GrantedPermissions permissions = registry.grant(List.of("read"));
+
+    assertThat(permissions.hasAuthority("read")).isTrue();
+    assertThat(permissions.hasAuthority("write")).isFalse();
+    assertThat(permissions.hasAuthority("unknown")).isFalse();
+    assertThat(permissions.hasAuthority(null)).isFalse();
+  }
+
+  @Test
+  void hasAnyAuthority_anyPermissionGranted_isTrue() {
+    GrantedPermissions permissions = registry.grant(List.of("read"));
+
+    assertThat(permissions.hasAnyAuthority("write", "read")).isTrue();
+    assertThat(permissions.hasAnyAuthority("write", "unknown")).isFalse();
+    assertThat(permissions.hasAnyAuthority()).isFalse();
+  }
+
+  @Test
+  void contains_comparesAuthoritiesByEquality() {
+    GrantedPermissions permissions = registry.grant(List.of("read"));
+
+    assertThat(permissions.contains(new SimpleGrantedAuthority("read"))).isTrue();
+    assertThat(permissions.contains(new SimpleGrantedAuthority("write"))).isFalse();
+    assertThat(permissions.contains(new OrganisationGrantedAuthority("read"))).isFalse();
+    assertThat(permissions.contains("read")).isFalse();
+  }
+
+  @Test
+  void grantedPermissions_cannotBeModified() {
+    List<GrantedAuthority> permissions = registry.grant(List.of("read"));
+
+    assertThatThrownBy(() -> permissions.add(new SimpleGrantedAuthority("write")))
+        .isInstanceOf(UnsupportedOperationException.class);
+    assertThatThrownBy(() -> permissions.remove(0))
+        .isInstanceOf(UnsupportedOperationException.class);
+  }
+}
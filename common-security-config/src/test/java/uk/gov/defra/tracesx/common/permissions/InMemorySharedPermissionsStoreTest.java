@@ -0,0 +1,61 @@
+package uk.gov.defra.tracesx.common.permissions;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import uk.gov.defra.tracesx.common.permissions.PermissionsCache.CachedPermissions;
+
+class InMemorySharedPermissionsStoreTest {
+
+  private static final CachedPermissions PERMISSIONS =
+      new CachedPermissions(List.of("read"), Instant.parse("2024-01-01T12:00:00Z"));
+
+  private static final Instant NOW = Instant.parse("2024-01-01T12:05:00Z");
+  private static final Duration LEASE = Duration.ofSeconds(10);
+
+  private final Clock clock = mock(Clock.class);
+  private final InMemorySharedPermissionsStore store = new InMemorySharedPermissionsStore(clock);
+
+  @Test
+  void put_storesPermissionsAndNotifiesListeners() {
+    SharedPermissionsStore.Listener listener = mock(SharedPermissionsStore.Listener.class);
+    store.subscribe(listener);
+
+    store.put("importer", PERMISSIONS);
+
+    assertThat(store.get("importer")).isEqualTo(PERMISSIONS);
+    assertThat(store.get("inspector")).isNull();
+    verify(listener).updated("importer", PERMISSIONS);
+  }
+
+  @Test
+  void claimRefresh_claimHeld_otherClaimsRefusedUntilTheLeaseExpires() {
+    when(clock.instant()).thenReturn(NOW);
+    assertThat(store.claimRefresh("importer", LEASE)).isTrue();
+    assertThat(store.claimRefresh("importer", LEASE)).isFalse();
+    assertThat(store.claimRefresh("inspector", LEASE)).isTrue();
+
+    when(clock.instant()).thenReturn(NOW.plus(LEASE));
+
+    assertThat(store.claimRefresh("importer", LEASE)).isTrue();
+  }
+
+  @Test
+  void clear_removesPermissionsAndNotifiesListeners() {
+    SharedPermissionsStore.Listener listener = mock(SharedPermissionsStore.Listener.class);
+    store.put("importer", PERMISSIONS);
+    store.subscribe(listener);
+
+    store.clear();
+
+    assertThat(store.get("importer")).isNull();
+    verify(listener).cleared();
+  }
+}
@@ -0,0 +1,25 @@
+package uk.gov.defra.tracesx.common.permissions;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+@SpringBootTest(classes = PermissionsCacheTest.Config.class)
+@ActiveProfiles("permissions-cache")
+@TestPropertySource(properties = "permissions.service.user=")
+class PermissionsCacheScopeDefaultTest {
+
+  @Autowired
+  private PermissionsCache permissionsCache;
+
+  @Test
+  void scope_noServiceCredential_permissionsSharedWithinIssuer() throws Exception {
+    assertThat(FieldUtils.readField(permissionsCache, "scope", true))
+        .isEqualTo(PermissionsCacheScope.ISSUER);
+  }
+}
@@ -1,31 +1,66 @@
 package uk.gov.defra.tracesx.common.permissions;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import com.microsoft.applicationinsights.TelemetryClient;
-import java.util.Collections;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.reflect.FieldUtils;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.cache.CacheManager;
-import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.cache.concurrent.ConcurrentMapCache;
-import org.springframework.cache.support.SimpleCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.client.ResourceAccessException;
+import uk.gov.defra.tracesx.common.security.IdTokenAuthentication;
+import uk.gov.defra.tracesx.common.security.IdTokenUserDetails;
 
 @SpringBootTest
 @ActiveProfiles("permissions-cache")
 class PermissionsCacheTest {
 
+  private static final List<String> FIRST_LIST = List.of("permissions1");
+  private static final List<String> SECOND_LIST = List.of("permissions2");
+  private static final Instant LOADED_AT = Instant.parse("2024-01-01T12:00:00Z");
+  private static final Duration REFRESH_DELAY = Duration.ofMinutes(5);
+
   @Autowired
   private PermissionsClient permissionsService;
   @Autowired
@@ -33,6 +68,11 @@ class PermissionsCacheTest {
   @Autowired
   private TelemetryClient telemetryClient;
 
+  private PermissionsClient client;
+  private Clock clock;
+  private PermissionsCircuitBreaker circuitBreaker;
+  private TelemetryClient refreshTelemetryClient;
+
   @Test
    void permissionsList_calledTwice_remoteServiceCalledOnce() {
     List<String> firstList = List.of("permissions1");
@@ -49,13 +89,714 @@ class PermissionsCacheTest {
     verify(permissionsService).permissionsList("importer", "token");
   }
 
+  @Test
+  void scope_serviceCredentialSet_permissionsSharedByAllUsers() throws Exception {
+    assertThat(FieldUtils.readField(permissionsCache, "scope", true))
+        .isEqualTo(PermissionsCacheScope.NONE);
+  }
+
   @Test
   void clearCache_whenCalled_emitsTelemetryEvent() {
     permissionsCache.clearCache();
     verify(telemetryClient).trackEvent("UnitTestAppPermissionsCacheRefreshed");
   }
 
-  @EnableCaching
+  @Test
+  void permissionsList_olderThanRefreshDelay_cachedListReturnedAndReloaded() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    when(client.permissionsList("importer", "token")).thenReturn(FIRST_LIST);
+    when(client.permissionsList("importer", null)).thenReturn(SECOND_LIST);
+
+    refreshingCache.permissionsList("importer", "token");
+    when(clock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY));
+
+    assertThat(refreshingCache.permissionsList("importer", "token")).isEqualTo(FIRST_LIST);
+    assertThat(refreshingCache.permissionsList("importer", "token")).isEqualTo(SECOND_LIST);
+    verify(client).permissionsList("importer", "token");
+    // refreshed with the service credential rather than the token of the user
+    verify(client).permissionsList("importer", null);
+    verify(refreshTelemetryClient).trackEvent("UnitTestAppPermissionsRoleRefreshed");
+  }
+
+  @Test
+  void permissionsList_olderThanRefreshDelayWithoutServiceCredential_reloadedWithUserToken()
+      throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(command -> {
+      throw new AssertionError("no background refresh expected");
+    });
+    when(client.usesServiceCredential()).thenReturn(false);
+    when(client.permissionsList("importer", "token")).thenReturn(FIRST_LIST);
+    when(client.permissionsList("importer", "other-token")).thenReturn(SECOND_LIST);
+
+    refreshingCache.permissionsList("importer", "token");
+    when(clock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY));
+
+    assertThat(refreshingCache.permissionsList("importer", "other-token")).isEqualTo(SECOND_LIST);
+    verify(client).permissionsList("importer", "token");
+    verify(client).permissionsList("importer", "other-token");
+    verifyNoInteractions(refreshTelemetryClient);
+  }
+
+  @Test
+  void permissionsList_refreshFails_cachedListKept() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    when(client.permissionsList("importer", "token")).thenReturn(FIRST_LIST);
+    when(client.permissionsList("importer", null))
+        .thenThrow(new ResourceAccessException("unavailable"));
+
+    refreshingCache.permissionsList("importer", "token");
+    when(clock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY));
+
+    assertThat(refreshingCache.permissionsList("importer", "token")).isEqualTo(FIRST_LIST);
+    assertThat(refreshingCache.permissionsList("importer", "token")).isEqualTo(FIRST_LIST);
+    verify(client).permissionsList("importer", "token");
+    verify(client, times(2)).permissionsList("importer", null);
+    verifyNoInteractions(refreshTelemetryClient);
+  }
+
+  @Test
+  void permissionsList_notRefreshedForTwiceRefreshDelay_reloadedBeforeReturning()
+      throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(command -> {
+      throw new AssertionError("no background refresh expected");
+    });
+    when(client.permissionsList("importer", "token")).thenReturn(FIRST_LIST, SECOND_LIST);
+
+    refreshingCache.permissionsList("importer", "token");
+    when(clock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY.multipliedBy(2)));
+
+    assertThat(refreshingCache.permissionsList("importer", "token")).isEqualTo(SECOND_LIST);
+    verify(client, times(2)).permissionsList("importer", "token");
+  }
+
+  @Test
+  void permissionsList_concurrentMisses_remoteServiceCalledOnce() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    CountDownLatch loadStarted = new CountDownLatch(1);
+    CountDownLatch releaseLoad = new CountDownLatch(1);
+    when(client.permissionsList("importer", "token")).thenAnswer(invocation -> {
+      loadStarted.countDown();
+      releaseLoad.await();
+      return FIRST_LIST;
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<List<String>> first =
+          executor.submit(() -> refreshingCache.permissionsList("importer", "token"));
+      assertThat(loadStarted.await(5, TimeUnit.SECONDS)).isTrue();
+      Future<List<String>> second =
+          executor.submit(() -> refreshingCache.permissionsList("importer", "token"));
+      Thread.sleep(100);
+      releaseLoad.countDown();
+
+      assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(FIRST_LIST);
+      assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(FIRST_LIST);
+    } finally {
+      executor.shutdownNow();
+    }
+    verify(client).permissionsList("importer", "token");
+  }
+
+  @Test
+  void clearCache_whenCalled_nextRequestReloaded() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    when(client.permissionsList("importer", "token")).thenReturn(FIRST_LIST, SECOND_LIST);
+
+    refreshingCache.permissionsList("importer", "token");
+    refreshingCache.clearCache();
+
+    assertThat(refreshingCache.permissionsList("importer", "token")).isEqualTo(SECOND_LIST);
+    verify(client, times(2)).permissionsList("importer", "token");
+  }
+
+  @Test
+  void permissionsLists_partlyCached_onlyMissingRolesFetched() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    when(client.permissionsList("importer", "token")).thenReturn(FIRST_LIST);
+    when(client.isBulkAvailable()).thenReturn(true);
+    when(client.permissionsLists(List.of("inspector", "admin"), "token"))
+        .thenReturn(Map.of("inspector", SECOND_LIST));
+
+    refreshingCache.permissionsList("importer", "token");
+    Map<String, List<String>> permissionsByRole = refreshingCache.permissionsLists(
+        List.of("inspector", "importer", "admin", "inspector"), "token");
+
+    assertThat(permissionsByRole).containsExactly(
+        entry("inspector", SECOND_LIST),
+        entry("importer", FIRST_LIST),
+        entry("admin", List.of()));
+    assertThat(refreshingCache.permissionsList("admin", "token")).isEmpty();
+    verify(client).permissionsList("importer", "token");
+    verify(client).isBulkAvailable();
+    verify(client).permissionsLists(List.of("inspector", "admin"), "token");
+    verifyNoMoreInteractions(client);
+  }
+
+  @Test
+  void permissionsLists_allCached_remoteServiceNotCalled() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    when(client.isBulkAvailable()).thenReturn(true);
+    when(client.permissionsLists(List.of("importer", "inspector"), "token"))
+        .thenReturn(Map.of("importer", FIRST_LIST, "inspector", SECOND_LIST));
+
+    refreshingCache.permissionsLists(List.of("importer", "inspector"), "token");
+    Map<String, List<String>> permissionsByRole =
+        refreshingCache.permissionsLists(List.of("inspector", "importer"), "token");
+
+    assertThat(permissionsByRole).containsExactly(
+        entry("inspector", SECOND_LIST), entry("importer", FIRST_LIST));
+    verify(client).isBulkAvailable();
+    verify(client).permissionsLists(List.of("importer", "inspector"), "token");
+    verifyNoMoreInteractions(client);
+  }
+
+  @Test
+  void permissionsLists_noBulkEndpoint_rolesFetchedConcurrently() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      PermissionsCache refreshingCache = newPermissionsCache(executor);
+      FieldUtils.writeField(refreshingCache, "maxConcurrentRequests", 2, true);
+      CountDownLatch bothGroupsStarted = new CountDownLatch(2);
+      when(client.permissionsLists(any(), eq("token"))).thenAnswer(invocation -> {
+        bothGroupsStarted.countDown();
+        // only returns when the other group is fetched at the same time
+        assertThat(bothGroupsStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        List<String> group = invocation.getArgument(0);
+        return group.stream().collect(Collectors.toMap(
+            role -> role, role -> List.of(role + ".read"), (first, second) -> first,
+            LinkedHashMap::new));
+      });
+
+      Map<String, List<String>> permissionsByRole = refreshingCache.permissionsLists(
+          List.of("importer", "inspector", "admin"), "token");
+
+      assertThat(permissionsByRole).containsExactly(
+          entry("importer", List.of("importer.read")),
+          entry("inspector", List.of("inspector.read")),
+          entry("admin", List.of("admin.read")));
+      verify(client).isBulkAvailable();
+      verify(client).permissionsLists(List.of("importer", "admin"), "token");
+      verify(client).permissionsLists(List.of("inspector"), "token");
+      verifyNoMoreInteractions(client);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void permissionsLists_noBulkEndpointRoleMissingFromResponse_emptyListReturned()
+      throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    FieldUtils.writeField(refreshingCache, "maxConcurrentRequests", 2, true);
+    when(client.permissionsLists(List.of("importer"), "token"))
+        .thenReturn(Map.of("importer", FIRST_LIST));
+    when(client.permissionsLists(List.of("inspector"), "token")).thenReturn(Map.of());
+
+    assertThat(refreshingCache.permissionsLists(List.of("importer", "inspector"), "token"))
+        .containsExactly(entry("importer", FIRST_LIST), entry("inspector", List.of()));
+  }
+
+  @Test
+  void permissionsLists_refreshesQueued_missingRolesFetchedOnTheirOwnPool() throws Exception {
+    ExecutorService fanOutExecutor = Executors.newFixedThreadPool(2);
+    try {
+      List<Runnable> refreshes = new ArrayList<>();
+      PermissionsCache refreshingCache =
+          newPermissionsCache(refreshes::add, fanOutExecutor, null);
+      FieldUtils.writeField(refreshingCache, "maxConcurrentRequests", 2, true);
+      when(client.permissionsList("admin", "token")).thenReturn(FIRST_LIST);
+      when(client.permissionsLists(any(), eq("token"))).thenAnswer(invocation -> {
+        List<String> group = invocation.getArgument(0);
+        return Map.of(group.get(0), SECOND_LIST);
+      });
+      refreshingCache.permissionsList("admin", "token");
+      when(clock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY));
+      refreshingCache.permissionsList("admin", "token");
+
+      assertThat(refreshingCache.permissionsLists(List.of("importer", "inspector"), "token"))
+          .containsExactly(entry("importer", SECOND_LIST), entry("inspector", SECOND_LIST));
+      // the refresh of admin is still waiting for a thread
+      assertThat(refreshes).hasSize(1);
+    } finally {
+      fanOutExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  void permissionsLists_fetchMissesDeadline_throwsAndCachesLateResults() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    CountDownLatch releaseFetch = new CountDownLatch(1);
+    try {
+      PermissionsCache refreshingCache = newPermissionsCache(executor);
+      FieldUtils.writeField(refreshingCache, "requestTimeoutMillis", 200L, true);
+      when(client.permissionsLists(any(), eq("token"))).thenAnswer(invocation -> {
+        releaseFetch.await(5, TimeUnit.SECONDS);
+        List<String> group = invocation.getArgument(0);
+        return Map.of(group.get(0), List.of(group.get(0) + ".read"));
+      });
+
+      assertThatThrownBy(() -> refreshingCache.permissionsLists(
+          List.of("importer", "inspector"), "token"))
+          .isInstanceOf(ResourceAccessException.class)
+          .hasMessageContaining("Timed out");
+      releaseFetch.countDown();
+      executor.shutdown();
+      assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+
+      assertThat(refreshingCache.permissionsLists(List.of("importer", "inspector"), "token"))
+          .containsExactly(
+              entry("importer", List.of("importer.read")),
+              entry("inspector", List.of("inspector.read")));
+      verify(client).isBulkAvailable();
+      verify(client).permissionsLists(List.of("importer"), "token");
+      verify(client).permissionsLists(List.of("inspector"), "token");
+      verifyNoMoreInteractions(client);
+    } finally {
+      releaseFetch.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void permissionsListAsync_miss_fetchedWithoutBlockingAndCached() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    CompletableFuture<List<String>> response = new CompletableFuture<>();
+    when(client.permissionsListAsync("importer", "token")).thenReturn(response);
+
+    CompletableFuture<List<String>> first =
+        refreshingCache.permissionsListAsync("importer", "token");
+    CompletableFuture<List<String>> second =
+        refreshingCache.permissionsListAsync("importer", "token");
+    assertThat(first).isNotDone();
+    response.complete(FIRST_LIST);
+
+    assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(FIRST_LIST);
+    assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(FIRST_LIST);
+    assertThat(refreshingCache.permissionsListAsync("importer", "token")).isCompletedWithValue(
+        FIRST_LIST);
+    assertThat(refreshingCache.permissionsList("importer", "token")).isEqualTo(FIRST_LIST);
+    verify(client).permissionsListAsync("importer", "token");
+    verifyNoMoreInteractions(client);
+  }
+
+  @Test
+  void permissionsListAsync_fetchFails_nothingCachedAndNextCallRetries() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    when(client.permissionsListAsync("importer", "token"))
+        .thenReturn(CompletableFuture.failedFuture(new ResourceAccessException("unavailable")))
+        .thenReturn(CompletableFuture.completedFuture(SECOND_LIST));
+
+    assertThat(refreshingCache.permissionsListAsync("importer", "token"))
+        .failsWithin(5, TimeUnit.SECONDS)
+        .withThrowableOfType(ExecutionException.class)
+        .withCauseInstanceOf(ResourceAccessException.class);
+    assertThat(refreshingCache.permissionsListAsync("importer", "token").get(5, TimeUnit.SECONDS))
+        .isEqualTo(SECOND_LIST);
+    verify(client, times(2)).permissionsListAsync("importer", "token");
+  }
+
+  @Test
+  void permissionsList_circuitOpen_lastKnownGoodListReturnedWithoutCallingService()
+      throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    openCircuitAfterOneFailure();
+    when(client.permissionsList("importer", "token"))
+        .thenReturn(FIRST_LIST)
+        .thenThrow(new ResourceAccessException("unavailable"));
+
+    refreshingCache.permissionsList("importer", "token");
+    when(clock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY.multipliedBy(2)));
+    assertThatThrownBy(() -> refreshingCache.permissionsList("importer", "token"))
+        .isInstanceOf(ResourceAccessException.class)
+        .hasMessage("unavailable");
+
+    assertThat(refreshingCache.permissionsList("importer", "token")).isEqualTo(FIRST_LIST);
+    assertThat(refreshingCache.permissionsLists(List.of("importer"), "token"))
+        .containsExactly(entry("importer", FIRST_LIST));
+    assertThat(refreshingCache.permissionsListAsync("importer", "token"))
+        .isCompletedWithValue(FIRST_LIST);
+    verify(client, times(2)).permissionsList("importer", "token");
+    verifyNoMoreInteractions(client);
+  }
+
+  @Test
+  void permissionsList_circuitOpenAndLastKnownGoodTooOld_failsWithoutCallingService()
+      throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    openCircuitAfterOneFailure();
+    FieldUtils.writeField(refreshingCache, "maxStalenessMillis",
+        REFRESH_DELAY.multipliedBy(3).toMillis(), true);
+    when(client.permissionsList("importer", "token"))
+        .thenReturn(FIRST_LIST)
+        .thenThrow(new ResourceAccessException("unavailable"));
+
+    refreshingCache.permissionsList("importer", "token");
+    when(clock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY.multipliedBy(2)));
+    assertThatThrownBy(() -> refreshingCache.permissionsList("importer", "token"))
+        .hasMessage("unavailable");
+    when(clock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY.multipliedBy(3)));
+
+    assertThatThrownBy(() -> refreshingCache.permissionsList("importer", "token"))
+        .isInstanceOf(PermissionsServiceUnavailableException.class);
+    assertThatThrownBy(() -> refreshingCache.permissionsList("inspector", "token"))
+        .isInstanceOf(PermissionsServiceUnavailableException.class);
+    verify(client, times(2)).permissionsList("importer", "token");
+    verifyNoMoreInteractions(client);
+  }
+
+  @Test
+  void permissionsList_circuitOpenWhileWaitingOnBackgroundRefresh_lastKnownGoodListReturned()
+      throws Exception {
+    List<Runnable> refreshes = new ArrayList<>();
+    PermissionsCache refreshingCache = newPermissionsCache(refreshes::add);
+    openCircuitAfterOneFailure();
+    when(client.permissionsList("importer", "token")).thenReturn(FIRST_LIST);
+    when(client.permissionsList("inspector", "token"))
+        .thenThrow(new ResourceAccessException("unavailable"));
+    refreshingCache.permissionsList("importer", "token");
+    when(clock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY));
+    assertThatThrownBy(() -> refreshingCache.permissionsList("inspector", "token"))
+        .hasMessage("unavailable");
+    assertThat(refreshingCache.permissionsList("importer", "token")).isEqualTo(FIRST_LIST);
+    when(clock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY.multipliedBy(2)));
+
+    AtomicReference<Thread> foregroundThread = new AtomicReference<>();
+    ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable);
+      foregroundThread.set(thread);
+      return thread;
+    });
+    try {
+      Future<List<String>> foreground =
+          executor.submit(() -> refreshingCache.permissionsList("importer", "token"));
+      // the foreground load waits on the background refresh already in progress
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (foregroundThread.get() == null
+          || foregroundThread.get().getState() != Thread.State.WAITING) {
+        assertThat(System.nanoTime()).isLessThan(deadline);
+        Thread.sleep(10);
+      }
+      assertThat(refreshes).hasSize(1);
+      refreshes.get(0).run();
+
+      assertThat(foreground.get(5, TimeUnit.SECONDS)).isEqualTo(FIRST_LIST);
+    } finally {
+      executor.shutdownNow();
+    }
+    verify(client).permissionsList("importer", "token");
+    verify(client).permissionsList("inspector", "token");
+    verify(client, atLeastOnce()).usesServiceCredential();
+    verifyNoMoreInteractions(client);
+    verifyNoInteractions(refreshTelemetryClient);
+  }
+
+  @Test
+  void permissionsList_sharedStore_otherReplicaServedWithoutCallingService() throws Exception {
+    SharedPermissionsStore sharedStore = new InMemorySharedPermissionsStore();
+    PermissionsCache firstReplica = newPermissionsCache(Runnable::run, sharedStore);
+    PermissionsClient firstClient = client;
+    PermissionsCache secondReplica = newPermissionsCache(Runnable::run, sharedStore);
+    when(firstClient.permissionsList("importer", "token")).thenReturn(FIRST_LIST);
+
+    assertThat(firstReplica.permissionsList("importer", "token")).isEqualTo(FIRST_LIST);
+
+    assertThat(secondReplica.permissionsList("importer", "token")).isEqualTo(FIRST_LIST);
+    assertThat(secondReplica.permissionsLists(List.of("importer"), "token"))
+        .containsExactly(entry("importer", FIRST_LIST));
+    verify(firstClient).permissionsList("importer", "token");
+    verifyNoInteractions(client);
+  }
+
+  @Test
+  void permissionsList_sharedStore_refreshBroadcastToOtherReplica() throws Exception {
+    SharedPermissionsStore sharedStore = new InMemorySharedPermissionsStore();
+    PermissionsCache firstReplica = newPermissionsCache(Runnable::run, sharedStore);
+    PermissionsClient firstClient = client;
+    Clock firstClock = clock;
+    PermissionsCache secondReplica = newPermissionsCache(Runnable::run, sharedStore);
+    when(firstClient.permissionsList("importer", "token")).thenReturn(FIRST_LIST);
+    when(firstClient.permissionsList("importer", null)).thenReturn(SECOND_LIST);
+    firstReplica.permissionsList("importer", "token");
+    secondReplica.permissionsList("importer", "token");
+
+    when(firstClock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY));
+    when(clock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY));
+    firstReplica.permissionsList("importer", "token");
+
+    assertThat(secondReplica.permissionsList("importer", "token")).isEqualTo(SECOND_LIST);
+    verify(firstClient).permissionsList("importer", "token");
+    verify(firstClient).permissionsList("importer", null);
+    verifyNoInteractions(client);
+  }
+
+  @Test
+  void permissionsList_sharedStore_replicasDueARefreshAtOnce_serviceAskedOnce() throws Exception {
+    SharedPermissionsStore sharedStore = new InMemorySharedPermissionsStore();
+    List<Runnable> firstRefreshes = new ArrayList<>();
+    PermissionsCache firstReplica = newPermissionsCache(firstRefreshes::add, sharedStore);
+    PermissionsClient firstClient = client;
+    Clock firstClock = clock;
+    List<Runnable> secondRefreshes = new ArrayList<>();
+    PermissionsCache secondReplica = newPermissionsCache(secondRefreshes::add, sharedStore);
+    when(firstClient.permissionsList("importer", "token")).thenReturn(FIRST_LIST);
+    when(firstClient.permissionsList("importer", null)).thenReturn(SECOND_LIST);
+    firstReplica.permissionsList("importer", "token");
+    secondReplica.permissionsList("importer", "token");
+
+    when(firstClock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY));
+    when(clock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY));
+    assertThat(firstReplica.permissionsList("importer", "token")).isEqualTo(FIRST_LIST);
+    assertThat(secondReplica.permissionsList("importer", "token")).isEqualTo(FIRST_LIST);
+    assertThat(firstRefreshes).hasSize(1);
+    assertThat(secondRefreshes).hasSize(1);
+    firstRefreshes.get(0).run();
+    secondRefreshes.get(0).run();
+
+    assertThat(firstReplica.permissionsList("importer", "token")).isEqualTo(SECOND_LIST);
+    assertThat(secondReplica.permissionsList("importer", "token")).isEqualTo(SECOND_LIST);
+    verify(firstClient).permissionsList("importer", "token");
+    verify(firstClient).permissionsList("importer", null);
+    verify(client, never()).permissionsList(any(), any());
+  }
+
+  @Test
+  void clearCache_sharedStore_otherReplicaCleared() throws Exception {
+    SharedPermissionsStore sharedStore = new InMemorySharedPermissionsStore();
+    PermissionsCache firstReplica = newPermissionsCache(Runnable::run, sharedStore);
+    PermissionsClient firstClient = client;
+    PermissionsCache secondReplica = newPermissionsCache(Runnable::run, sharedStore);
+    when(firstClient.permissionsList("importer", "token")).thenReturn(FIRST_LIST);
+    when(client.permissionsList("importer", "token")).thenReturn(SECOND_LIST);
+    firstReplica.permissionsList("importer", "token");
+    secondReplica.permissionsList("importer", "token");
+
+    firstReplica.clearCache();
+
+    assertThat(secondReplica.permissionsList("importer", "token")).isEqualTo(SECOND_LIST);
+    verify(client).permissionsList("importer", "token");
+  }
+
+  @Test
+  void permissionsList_sharedStoreUnavailable_inProcessCacheStillUsed() throws Exception {
+    SharedPermissionsStore sharedStore = mock(SharedPermissionsStore.class);
+    when(sharedStore.get("importer")).thenThrow(new IllegalStateException("unreachable"));
+    Mockito.doThrow(new IllegalStateException("unreachable"))
+        .when(sharedStore).put(eq("importer"), any());
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run, sharedStore);
+    when(client.permissionsList("importer", "token")).thenReturn(FIRST_LIST);
+
+    assertThat(refreshingCache.permissionsList("importer", "token")).isEqualTo(FIRST_LIST);
+    assertThat(refreshingCache.permissionsList("importer", "token")).isEqualTo(FIRST_LIST);
+    verify(client).permissionsList("importer", "token");
+  }
+
+  @Test
+  void permissionsList_scopedByIssuer_sharedOnlyWithinIssuer() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    FieldUtils.writeField(refreshingCache, "scope", PermissionsCacheScope.ISSUER, true);
+    when(client.permissionsList("importer", "first-token")).thenReturn(FIRST_LIST);
+    when(client.permissionsLists(List.of("importer"), "second-token"))
+        .thenReturn(Map.of("importer", SECOND_LIST));
+    try {
+      authenticate("https://first-issuer");
+      assertThat(refreshingCache.permissionsList("importer", "first-token")).isEqualTo(FIRST_LIST);
+      authenticate("https://second-issuer");
+      assertThat(refreshingCache.permissionsLists(List.of("importer"), "second-token"))
+          .containsExactly(entry("importer", SECOND_LIST));
+      authenticate("https://first-issuer");
+      assertThat(refreshingCache.permissionsList("importer", "other-token")).isEqualTo(FIRST_LIST);
+    } finally {
+      SecurityContextHolder.clearContext();
+    }
+    verify(client).permissionsList("importer", "first-token");
+    verify(client).permissionsLists(List.of("importer"), "second-token");
+    verifyNoMoreInteractions(client);
+  }
+
+  @Test
+  void permissionsList_notScoped_sharedByAllUsers() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    when(client.permissionsList("importer", "first-token")).thenReturn(FIRST_LIST);
+    try {
+      authenticate("https://first-issuer");
+      refreshingCache.permissionsList("importer", "first-token");
+      authenticate("https://second-issuer");
+      assertThat(refreshingCache.permissionsList("importer", "second-token")).isEqualTo(FIRST_LIST);
+    } finally {
+      SecurityContextHolder.clearContext();
+    }
+    verify(client).permissionsList("importer", "first-token");
+    verifyNoMoreInteractions(client);
+  }
+
+  @Test
+  void grantedAuthorities_sameRolesInAnyOrder_shareOneImmutableList() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    when(client.isBulkAvailable()).thenReturn(true);
+    when(client.permissionsLists(List.of("inspector", "importer"), "token"))
+        .thenReturn(Map.of("importer", List.of("read", "write"), "inspector", List.of("read")));
+
+    List<GrantedAuthority> first =
+        refreshingCache.grantedAuthorities(null, List.of("inspector", "importer"), "token");
+    List<GrantedAuthority> second =
+        refreshingCache.grantedAuthorities(null, List.of("importer", "inspector"), "token");
+    List<GrantedAuthority> third = refreshingCache.grantedAuthorities(
+        null, List.of("inspector", "importer", "importer"), "token");
+
+    assertThat(first).containsExactly(
+        new SimpleGrantedAuthority("read"), new SimpleGrantedAuthority("write"));
+    assertThat(second).isSameAs(third).isEqualTo(first);
+    assertThatThrownBy(() -> second.add(new SimpleGrantedAuthority("admin")))
+        .isInstanceOf(UnsupportedOperationException.class);
+    verify(client).permissionsLists(List.of("inspector", "importer"), "token");
+  }
+
+  @Test
+  void grantedAuthorities_permissionsRefreshed_listRebuilt() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    when(client.permissionsLists(List.of("importer"), "token"))
+        .thenReturn(Map.of("importer", FIRST_LIST), Map.of("importer", SECOND_LIST));
+
+    refreshingCache.grantedAuthorities(null, List.of("importer"), "token");
+    List<GrantedAuthority> memoised =
+        refreshingCache.grantedAuthorities(null, List.of("importer"), "token");
+    refreshingCache.clearCache();
+    List<GrantedAuthority> rebuilt =
+        refreshingCache.grantedAuthorities(null, List.of("importer"), "token");
+
+    assertThat(memoised).containsExactly(new SimpleGrantedAuthority("permissions1"));
+    assertThat(rebuilt).containsExactly(new SimpleGrantedAuthority("permissions2"));
+  }
+
+  @Test
+  void grantedAuthorities_refreshReturnsSamePermissions_listKept() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    when(client.permissionsLists(List.of("importer"), "token"))
+        .thenReturn(Map.of("importer", FIRST_LIST));
+    when(client.permissionsList("importer", null)).thenReturn(List.copyOf(FIRST_LIST));
+
+    refreshingCache.grantedAuthorities(null, List.of("importer"), "token");
+    List<GrantedAuthority> memoised =
+        refreshingCache.grantedAuthorities(null, List.of("importer"), "token");
+    when(clock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY));
+    refreshingCache.grantedAuthorities(null, List.of("importer"), "token");
+
+    assertThat(refreshingCache.grantedAuthorities(null, List.of("importer"), "token"))
+        .isSameAs(memoised);
+    verify(client).permissionsList("importer", null);
+  }
+
+  @Test
+  void grantedAuthorities_permissionsOfOtherRoleChanged_listKept() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    when(client.permissionsLists(List.of("importer"), "token"))
+        .thenReturn(Map.of("importer", FIRST_LIST));
+    when(client.permissionsLists(List.of("inspector"), "token"))
+        .thenReturn(Map.of("inspector", SECOND_LIST));
+    when(client.permissionsList("inspector", null)).thenReturn(List.of("permissions3"));
+
+    refreshingCache.grantedAuthorities(null, List.of("importer"), "token");
+    List<GrantedAuthority> memoised =
+        refreshingCache.grantedAuthorities(null, List.of("importer"), "token");
+    refreshingCache.grantedAuthorities(null, List.of("inspector"), "token");
+    when(clock.instant()).thenReturn(LOADED_AT.plus(REFRESH_DELAY));
+    refreshingCache.permissionsList("inspector", "token");
+
+    assertThat(refreshingCache.grantedAuthorities(null, List.of("inspector"), "token"))
+        .containsExactly(new SimpleGrantedAuthority("permissions3"));
+    when(clock.instant()).thenReturn(LOADED_AT);
+    assertThat(refreshingCache.grantedAuthorities(null, List.of("importer"), "token"))
+        .isSameAs(memoised);
+  }
+
+  @Test
+  void grantedAuthorities_scopedByIssuer_scopeTakenFromTheGivenUser() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    FieldUtils.writeField(refreshingCache, "scope", PermissionsCacheScope.ISSUER, true);
+    when(client.permissionsLists(List.of("importer"), "first-token"))
+        .thenReturn(Map.of("importer", FIRST_LIST));
+    when(client.permissionsLists(List.of("importer"), "second-token"))
+        .thenReturn(Map.of("importer", SECOND_LIST));
+
+    List<GrantedAuthority> first = refreshingCache.grantedAuthorities(
+        user("https://first-issuer"), List.of("importer"), "first-token");
+    List<GrantedAuthority> second = refreshingCache.grantedAuthorities(
+        user("https://second-issuer"), List.of("importer"), "second-token");
+    List<GrantedAuthority> firstAgain = refreshingCache.grantedAuthorities(
+        user("https://first-issuer"), List.of("importer"), "other-token");
+
+    assertThat(first).containsExactly(new SimpleGrantedAuthority("permissions1"));
+    assertThat(second).containsExactly(new SimpleGrantedAuthority("permissions2"));
+    assertThat(firstAgain).isEqualTo(first);
+    verify(client).permissionsLists(List.of("importer"), "first-token");
+    verify(client).permissionsLists(List.of("importer"), "second-token");
+    verifyNoMoreInteractions(client);
+  }
+
+  @Test
+  void grantedAuthoritiesAsync_missingRoles_fetchedWithoutBlocking() throws Exception {
+    PermissionsCache refreshingCache = newPermissionsCache(Runnable::run);
+    CompletableFuture<List<String>> response = new CompletableFuture<>();
+    when(client.permissionsListAsync("importer", "token")).thenReturn(response);
+    when(client.permissionsListAsync("inspector", "token"))
+        .thenReturn(CompletableFuture.completedFuture(List.of("read", "permissions1")));
+
+    CompletableFuture<List<GrantedAuthority>> authorities = refreshingCache
+        .grantedAuthoritiesAsync(null, List.of("inspector", "importer", "importer"), "token");
+    assertThat(authorities).isNotDone();
+    response.complete(FIRST_LIST);
+
+    assertThat(authorities.get(5, TimeUnit.SECONDS)).containsExactly(
+        new SimpleGrantedAuthority("permissions1"), new SimpleGrantedAuthority("read"));
+    assertThat(refreshingCache.grantedAuthorities(null, List.of("importer", "inspector"), "token"))
+        .isEqualTo(authorities.get());
+    verify(client).permissionsListAsync("importer", "token");
+    verify(client).permissionsListAsync("inspector", "token");
+    verifyNoMoreInteractions(client);
+  }
+
+  private static void authenticate(String issuer) {
+    SecurityContextHolder.getContext().setAuthentication(new IdTokenAuthentication(user(issuer)));
+  }
+
+  private static IdTokenUserDetails user(String issuer) {
+    return IdTokenUserDetails.builder()
+        .authorities(List.of())
+        .issuer(issuer)
+        .build();
+  }
+
+  private void openCircuitAfterOneFailure() throws IllegalAccessException {
+    FieldUtils.writeField(circuitBreaker, "failureThreshold", 1, true);
+    FieldUtils.writeField(circuitBreaker, "openDurationMillis", Duration.ofDays(1).toMillis(), true);
+  }
+
+  private PermissionsCache newPermissionsCache(Executor executor) throws IllegalAccessException {
+    return newPermissionsCache(executor, null);
+  }
+
+  private PermissionsCache newPermissionsCache(
+      Executor executor, SharedPermissionsStore sharedStore) throws IllegalAccessException {
+    return newPermissionsCache(executor, executor, sharedStore);
+  }
+
+  private PermissionsCache newPermissionsCache(
+      Executor executor, Executor fanOutExecutor, SharedPermissionsStore sharedStore)
+      throws IllegalAccessException {
+    client = mock(PermissionsClient.class);
+    clock = mock(Clock.class);
+    refreshTelemetryClient = mock(TelemetryClient.class);
+    lenient().when(clock.instant()).thenReturn(LOADED_AT);
+    lenient().when(client.usesServiceCredential()).thenReturn(true);
+    circuitBreaker = new PermissionsCircuitBreaker(clock);
+    PermissionsCache refreshingCache = new PermissionsCache(client, circuitBreaker,
+        refreshTelemetryClient, new ConcurrentMapCache(PermissionsCache.CACHE_KEY),
+        sharedStore, executor, fanOutExecutor, clock);
+    FieldUtils.writeField(refreshingCache, "appName", "Unit-Test App", true);
+    FieldUtils.writeField(refreshingCache, "refreshDelayMillis", REFRESH_DELAY.toMillis(), true);
+    return refreshingCache;
+  }
+
   @Profile("permissions-cache")
   @Configuration
   static class Config {
@@ -65,16 +806,11 @@ class PermissionsCacheTest {
       return Mockito.mock(PermissionsClient.class);
     }
 
-    @Bean
-    CacheManager cacheManager() {
-      SimpleCacheManager cacheManager = new SimpleCacheManager();
-      cacheManager.setCaches(Collections.singletonList(new ConcurrentMapCache("permissions")));
-      return cacheManager;
-    }
-
     @Bean
     public PermissionsCache getPermissionsCache() {
-      return new PermissionsCache(this.permissionsClient(), this.getTelemetryClient());
+      return new PermissionsCache(this.permissionsClient(), new PermissionsCircuitBreaker(),
+          this.getTelemetryClient(), new ConcurrentMapCache(PermissionsCache.CACHE_KEY),
+          Runnable::run, Clock.systemUTC());
     }
 
     @Bean
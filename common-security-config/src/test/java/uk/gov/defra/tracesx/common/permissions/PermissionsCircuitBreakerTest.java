@@ -0,0 +1,177 @@
+package uk.gov.defra.tracesx.common.permissions;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+class PermissionsCircuitBreakerTest {
+
+  private static final Instant NOW = Instant.parse("2024-01-01T12:00:00Z");
+  private static final Duration OPEN_DURATION = Duration.ofSeconds(30);
+
+  private final Clock clock = mock(Clock.class);
+  private final AtomicInteger calls = new AtomicInteger();
+  private PermissionsCircuitBreaker circuitBreaker;
+
+  @BeforeEach
+  void setUp() throws IllegalAccessException {
+    when(clock.instant()).thenReturn(NOW);
+    circuitBreaker = new PermissionsCircuitBreaker(clock);
+    FieldUtils.writeField(circuitBreaker, "failureThreshold", 2, true);
+    FieldUtils.writeField(circuitBreaker, "openDurationMillis", OPEN_DURATION.toMillis(), true);
+    FieldUtils.writeField(circuitBreaker, "maxConcurrentCalls", 1, true);
+  }
+
+  @Test
+  void call_belowFailureThreshold_callsMade() {
+    fail(new ResourceAccessException("unavailable"));
+
+    assertThat(circuitBreaker.call(this::succeed)).isEqualTo("ok");
+    fail(new ResourceAccessException("unavailable"));
+
+    assertThat(circuitBreaker.call(this::succeed)).isEqualTo("ok");
+    assertThat(calls).hasValue(4);
+  }
+
+  @Test
+  void call_consecutiveFailuresReachThreshold_callsRejectedUntilOpenDurationElapsed() {
+    fail(new ResourceAccessException("unavailable"));
+    fail(HttpServerErrorException.create(SERVICE_UNAVAILABLE, "Unavailable", null, null, null));
+
+    assertThatThrownBy(() -> circuitBreaker.call(this::succeed))
+        .isInstanceOf(PermissionsServiceUnavailableException.class);
+    assertThat(calls).hasValue(2);
+
+    when(clock.instant()).thenReturn(NOW.plus(OPEN_DURATION));
+    assertThat(circuitBreaker.call(this::succeed)).isEqualTo("ok");
+    assertThat(circuitBreaker.call(this::succeed)).isEqualTo("ok");
+    assertThat(calls).hasValue(4);
+  }
+
+  @Test
+  void call_trialCallFails_circuitOpenedAgain() {
+    fail(new ResourceAccessException("unavailable"));
+    fail(new ResourceAccessException("unavailable"));
+    when(clock.instant()).thenReturn(NOW.plus(OPEN_DURATION));
+
+    fail(new ResourceAccessException("still unavailable"));
+
+    assertThatThrownBy(() -> circuitBreaker.call(this::succeed))
+        .isInstanceOf(PermissionsServiceUnavailableException.class);
+    assertThat(calls).hasValue(3);
+  }
+
+  @Test
+  void call_trialCallThrowsError_nextCallTriedInstead() {
+    fail(new ResourceAccessException("unavailable"));
+    fail(new ResourceAccessException("unavailable"));
+    when(clock.instant()).thenReturn(NOW.plus(OPEN_DURATION));
+    Error error = new StackOverflowError();
+
+    assertThatThrownBy(() -> circuitBreaker.call(() -> {
+      throw error;
+    })).isSameAs(error);
+
+    assertThat(circuitBreaker.call(this::succeed)).isEqualTo("ok");
+    assertThat(circuitBreaker.call(this::succeed)).isEqualTo("ok");
+  }
+
+  @Test
+  void callAsync_trialCallThrowsError_nextCallTriedInstead() {
+    fail(new ResourceAccessException("unavailable"));
+    fail(new ResourceAccessException("unavailable"));
+    when(clock.instant()).thenReturn(NOW.plus(OPEN_DURATION));
+    Error error = new StackOverflowError();
+
+    assertThatThrownBy(() -> circuitBreaker.callAsync(() -> {
+      throw error;
+    })).isSameAs(error);
+
+    assertThat(circuitBreaker.call(this::succeed)).isEqualTo("ok");
+  }
+
+  @Test
+  void call_clientErrors_circuitStaysClosed() {
+    fail(HttpClientErrorException.create(BAD_REQUEST, "Bad Request", null, null, null));
+    fail(HttpClientErrorException.create(BAD_REQUEST, "Bad Request", null, null, null));
+    fail(HttpClientErrorException.create(BAD_REQUEST, "Bad Request", null, null, null));
+
+    assertThat(circuitBreaker.call(this::succeed)).isEqualTo("ok");
+  }
+
+  @Test
+  void call_tooManyCallsInFlight_extraCallRejected() {
+    String result = circuitBreaker.call(() -> {
+      assertThatThrownBy(() -> circuitBreaker.call(this::succeed))
+          .isInstanceOf(PermissionsServiceUnavailableException.class)
+          .hasMessageContaining("Too many concurrent requests");
+      return "outer";
+    });
+
+    assertThat(result).isEqualTo("outer");
+    assertThat(calls).hasValue(0);
+    assertThat(circuitBreaker.call(this::succeed)).isEqualTo("ok");
+  }
+
+  @Test
+  void callAsync_inFlightUntilFutureCompletes() throws Exception {
+    CompletableFuture<String> response = new CompletableFuture<>();
+    CompletableFuture<String> first = circuitBreaker.callAsync(() -> response);
+
+    assertThat(circuitBreaker.callAsync(() -> CompletableFuture.completedFuture("second")))
+        .failsWithin(1, TimeUnit.SECONDS)
+        .withThrowableOfType(ExecutionException.class)
+        .withCauseInstanceOf(PermissionsServiceUnavailableException.class);
+
+    response.complete("first");
+    assertThat(first.get(1, TimeUnit.SECONDS)).isEqualTo("first");
+    assertThat(circuitBreaker.callAsync(() -> CompletableFuture.completedFuture("third")))
+        .isCompletedWithValue("third");
+  }
+
+  @Test
+  void callAsync_failedFuturesCounted_circuitOpened() {
+    circuitBreaker.callAsync(
+        () -> CompletableFuture.failedFuture(new ResourceAccessException("unavailable")));
+    circuitBreaker.callAsync(
+        () -> CompletableFuture.failedFuture(new ResourceAccessException("unavailable")));
+
+    Supplier<CompletableFuture<String>> call = () -> {
+      calls.incrementAndGet();
+      return CompletableFuture.completedFuture("ok");
+    };
+    assertThat(circuitBreaker.callAsync(call))
+        .isCompletedExceptionally();
+    assertThat(calls).hasValue(0);
+  }
+
+  private String succeed() {
+    calls.incrementAndGet();
+    return "ok";
+  }
+
+  private void fail(RuntimeException exception) {
+    assertThatThrownBy(() -> circuitBreaker.call(() -> {
+      calls.incrementAndGet();
+      throw exception;
+    })).isSameAs(exception);
+  }
+}
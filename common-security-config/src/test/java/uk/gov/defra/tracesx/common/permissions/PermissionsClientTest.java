@@ -3,33 +3,58 @@ package uk.gov.defra.tracesx.common.permissions;
 import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import static org.springframework.http.HttpMethod.GET;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static org.springframework.http.HttpStatus.OK;
 
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.core5.io.CloseMode;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
+import uk.gov.defra.tracesx.common.security.conversation.id.ConversationContext;
+import uk.gov.defra.tracesx.common.security.conversation.id.ConversationStore;
 
 @ExtendWith(MockitoExtension.class)
 class PermissionsClientTest{
 
   private static final String READ = "read";
   private static final String ROLE = "importer";
+  private static final String OTHER_ROLE = "inspector";
   private static final String TOKEN = "dummyToken";
   private static final String INVALID_ROLE = "invalid.role";
   private static final String URL = "https://permissions-local";
@@ -38,9 +63,15 @@ class PermissionsClientTest{
 
   @Mock
   private RestTemplate restTemplate;
+  @Mock
+  private ObjectProvider<CloseableHttpAsyncClient> asyncHttpClientProvider;
   @InjectMocks
   private PermissionsClient permissionsService;
 
+  private HttpServer server;
+  private volatile Headers requestHeaders;
+  private CloseableHttpAsyncClient asyncHttpClient;
+
   @BeforeEach
   public void setup() {
     ReflectionTestUtils.setField(permissionsService, PERMISSIONS_URL, URL);
@@ -56,6 +87,16 @@ class PermissionsClientTest{
         .thenReturn(responseEntity);
   }
 
+  @AfterEach
+  public void tearDown() {
+    if (asyncHttpClient != null) {
+      asyncHttpClient.close(CloseMode.IMMEDIATE);
+    }
+    if (server != null) {
+      server.stop(0);
+    }
+  }
+
   @Test
    void testWhenPermissionsListIsCalledThenReturnListOfPermissions() {
 
@@ -81,6 +122,19 @@ class PermissionsClientTest{
     assertThat(permissionsList).isEmpty();
   }
 
+  @Test
+  void permissionsList_emptyBody_returnsEmptyList() {
+    when(restTemplate.exchange(
+        any(),
+        eq(GET),
+        any(HttpEntity.class),
+        eq(new ParameterizedTypeReference<List<String>>() {
+        })))
+        .thenReturn(new ResponseEntity<>(OK));
+
+    assertThat(permissionsService.permissionsList(ROLE, TOKEN)).isEmpty();
+  }
+
   @Test
    void testGetPermissions_ThrowsCustomException_WhenResourceAccessExceptionThrown() {
 
@@ -97,6 +151,207 @@ class PermissionsClientTest{
         .hasMessageContaining("Unable to get permissions due to exception: ");
   }
 
+  @Test
+  void permissionsLists_bulkEnabled_rolesFetchedWithOneRequest() {
+    ReflectionTestUtils.setField(permissionsService, "bulkEnabled", true);
+    when(restTemplate.exchange(
+        eq(URI.create(URL + "/roles/permissions?role=importer&role=inspector")),
+        eq(GET),
+        any(HttpEntity.class),
+        eq(new ParameterizedTypeReference<Map<String, List<String>>>() {
+        })))
+        .thenReturn(new ResponseEntity<>(Map.of(ROLE, perms), OK));
+
+    Map<String, List<String>> permissionsByRole =
+        permissionsService.permissionsLists(List.of(ROLE, OTHER_ROLE), TOKEN);
+
+    assertThat(permissionsByRole).containsExactly(
+        entry(ROLE, perms), entry(OTHER_ROLE, Collections.emptyList()));
+  }
+
+  @Test
+  void permissionsLists_bulkEndpointNotFound_rolesFetchedOneByOne() {
+    ReflectionTestUtils.setField(permissionsService, "bulkEnabled", true);
+    when(restTemplate.exchange(
+        any(),
+        eq(GET),
+        any(HttpEntity.class),
+        eq(new ParameterizedTypeReference<Map<String, List<String>>>() {
+        })))
+        .thenThrow(HttpClientErrorException.create(NOT_FOUND, "Not Found", null, null, null));
+
+    Map<String, List<String>> first =
+        permissionsService.permissionsLists(List.of(ROLE, OTHER_ROLE), TOKEN);
+    Map<String, List<String>> second =
+        permissionsService.permissionsLists(List.of(ROLE, OTHER_ROLE), TOKEN);
+
+    assertThat(first).containsExactly(entry(ROLE, perms), entry(OTHER_ROLE, perms));
+    assertThat(second).isEqualTo(first);
+    // the missing bulk endpoint is only asked for once
+    verify(restTemplate).exchange(
+        any(),
+        eq(GET),
+        any(HttpEntity.class),
+        eq(new ParameterizedTypeReference<Map<String, List<String>>>() {
+        }));
+  }
+
+  @Test
+  void permissionsLists_bulkDisabled_rolesFetchedOneByOne() {
+    Map<String, List<String>> permissionsByRole =
+        permissionsService.permissionsLists(List.of(ROLE, OTHER_ROLE), TOKEN);
+
+    assertThat(permissionsByRole).containsExactly(entry(ROLE, perms), entry(OTHER_ROLE, perms));
+    verify(restTemplate).exchange(
+        eq(URI.create(URL + "/roles/importer/permissions")),
+        eq(GET),
+        any(HttpEntity.class),
+        eq(new ParameterizedTypeReference<List<String>>() {
+        }));
+    verify(restTemplate).exchange(
+        eq(URI.create(URL + "/roles/inspector/permissions")),
+        eq(GET),
+        any(HttpEntity.class),
+        eq(new ParameterizedTypeReference<List<String>>() {
+        }));
+  }
+
+  @Test
+  void permissionsListAsync_serviceResponds_futureCompletesWithPermissions() throws Exception {
+    startServer(200, "[\"read\",\"write\"]");
+
+    CompletableFuture<List<String>> permissions =
+        permissionsService.permissionsListAsync(ROLE, TOKEN);
+
+    assertThat(permissions.get(5, TimeUnit.SECONDS)).containsExactly(READ, "write");
+    verifyNoInteractions(restTemplate);
+  }
+
+  @Test
+  void permissionsListAsync_emptyBody_futureCompletesWithEmptyList() throws Exception {
+    startServer(200, "");
+
+    CompletableFuture<List<String>> permissions =
+        permissionsService.permissionsListAsync(ROLE, TOKEN);
+
+    assertThat(permissions.get(5, TimeUnit.SECONDS)).isEmpty();
+  }
+
+  @Test
+  void permissionsListAsync_withConversation_sendsConversationHeaders() throws Exception {
+    startServer(200, "[]");
+    ConversationContext.set(new ConversationStore("id", "1.1.1.1"));
+    try {
+      permissionsService.permissionsListAsync(ROLE, TOKEN).get(5, TimeUnit.SECONDS);
+    } finally {
+      ConversationContext.clear();
+    }
+
+    assertThat(requestHeaders.getFirst("INS-ConversationId")).isEqualTo("id");
+    assertThat(requestHeaders.getFirst("INS-ConversationIp")).isEqualTo("1.1.1.1");
+  }
+
+  @Test
+  void permissionsListAsync_serviceReturnsError_futureCompletesExceptionally() throws Exception {
+    startServer(404, "");
+
+    CompletableFuture<List<String>> permissions =
+        permissionsService.permissionsListAsync(ROLE, TOKEN);
+
+    assertThatThrownBy(() -> permissions.get(5, TimeUnit.SECONDS))
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(HttpClientErrorException.NotFound.class);
+  }
+
+  @Test
+  void permissionsListAsync_serviceUnreachable_futureCompletesWithResourceAccessException()
+      throws Exception {
+    startServer(200, "[]");
+    server.stop(0);
+    server = null;
+
+    CompletableFuture<List<String>> permissions =
+        permissionsService.permissionsListAsync(ROLE, TOKEN);
+
+    assertThatThrownBy(() -> permissions.get(5, TimeUnit.SECONDS))
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(ResourceAccessException.class)
+        .hasMessageContaining("Unable to get permissions due to exception: ");
+  }
+
+  private void startServer(int status, String body) throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/roles/" + ROLE + "/permissions", exchange -> {
+      requestHeaders = exchange.getRequestHeaders();
+      assertThat(exchange.getRequestHeaders().getFirst("Authorization")).isEqualTo(TOKEN);
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+      try (OutputStream responseBody = exchange.getResponseBody()) {
+        responseBody.write(bytes);
+      }
+    });
+    server.start();
+    ReflectionTestUtils.setField(permissionsService, PERMISSIONS_URL,
+        "http://localhost:" + server.getAddress().getPort());
+    asyncHttpClient = HttpAsyncClients.createDefault();
+    asyncHttpClient.start();
+    when(asyncHttpClientProvider.getObject()).thenReturn(asyncHttpClient);
+  }
+
+  @Test
+  void permissionsList_serviceCredentialSet_calledWithBasicAuthInsteadOfUserToken() {
+    ReflectionTestUtils.setField(permissionsService, "serviceUser", "service");
+    ReflectionTestUtils.setField(permissionsService, "servicePassword", "secret");
+
+    permissionsService.permissionsList(ROLE, TOKEN);
+
+    ArgumentCaptor<HttpEntity<String>> entity = ArgumentCaptor.forClass(HttpEntity.class);
+    verify(restTemplate).exchange(
+        any(URI.class),
+        eq(GET),
+        entity.capture(),
+        eq(new ParameterizedTypeReference<List<String>>() {
+        }));
+    assertThat(entity.getValue().getHeaders().getFirst("Authorization"))
+        .isEqualTo("Basic c2VydmljZTpzZWNyZXQ=");
+  }
+
+  @Test
+  void permissionsList_noServiceCredential_calledWithUserToken() {
+    permissionsService.permissionsList(ROLE, TOKEN);
+
+    ArgumentCaptor<HttpEntity<String>> entity = ArgumentCaptor.forClass(HttpEntity.class);
+    verify(restTemplate).exchange(
+        any(URI.class),
+        eq(GET),
+        entity.capture(),
+        eq(new ParameterizedTypeReference<List<String>>() {
+        }));
+    assertThat(entity.getValue().getHeaders().getFirst("Authorization")).isEqualTo(TOKEN);
+  }
+
+  @Test
+  void permissionsList_withConversation_sendsConversationHeaders() {
+    ConversationContext.set(new ConversationStore("id", "1.1.1.1"));
+    try {
+      permissionsService.permissionsList(ROLE, TOKEN);
+    } finally {
+      ConversationContext.clear();
+    }
+
+    ArgumentCaptor<HttpEntity<String>> entity = ArgumentCaptor.forClass(HttpEntity.class);
+    verify(restTemplate).exchange(
+        any(URI.class),
+        eq(GET),
+        entity.capture(),
+        eq(new ParameterizedTypeReference<List<String>>() {
+        }));
+    assertThat(entity.getValue().getHeaders().getFirst("INS-ConversationId")).isEqualTo("id");
+    assertThat(entity.getValue().getHeaders().getFirst("INS-ConversationIp"))
+        .isEqualTo("1.1.1.1");
+  }
+
   private ResponseEntity<List<String>> createResponseEntity() {
     return new ResponseEntity<>(perms, OK);
   }
@@ -0,0 +1,110 @@
+package uk.gov.defra.tracesx.common.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+import uk.gov.defra.tracesx.common.security.EndpointSecurityAudit.EndpointSecurity;
+
+class EndpointSecurityAuditTest {
+
+  private static final String NOT_PRE_AUTHORIZED = "notPreAuthorized";
+  private static final String PRE_AUTHORIZED = "preAuthorized";
+  private static final String INVALID_EXPRESSION = "invalidExpression";
+
+  private final EndpointSecurityAudit testee =
+      new EndpointSecurityAudit(() -> List.of("/authorized/**"));
+
+  public void notPreAuthorized() {
+  }
+
+  @PreAuthorize("hasAuthority('notification.read') or hasAnyAuthority(read, 'notification.write')")
+  public void preAuthorized() {
+  }
+
+  @PreAuthorize("hasAuthority('notification.read'")
+  public void invalidExpression() {
+  }
+
+  @Test
+  void onApplicationEvent_authorizedEndpoints_reportedWithTheirAuthorities() throws Exception {
+    testee.onApplicationEvent(refreshed(Map.of(
+        RequestMappingInfo.paths("/authorized/{id}").methods(RequestMethod.GET).build(),
+        handlerMethod(PRE_AUTHORIZED),
+        RequestMappingInfo.paths("/public/{id}").build(),
+        handlerMethod(NOT_PRE_AUTHORIZED))));
+
+    assertThat(testee.getReport()).singleElement().satisfies(endpoint -> {
+      assertThat(endpoint.paths()).containsExactly("/authorized/{id}");
+      assertThat(endpoint.methods()).containsExactly("GET");
+      assertThat(endpoint.handler()).contains(PRE_AUTHORIZED);
+      assertThat(endpoint.authorities())
+          .containsExactly("notification.read", "read", "notification.write");
+      assertThat(endpoint.problem()).isNull();
+    });
+  }
+
+  @Test
+  void onApplicationEvent_strictMissingPreAuthorize_throwsListingTheHandler() throws Exception {
+    FieldUtils.writeField(testee, "strict", true, true);
+    ContextRefreshedEvent event = refreshed(Map.of(
+        RequestMappingInfo.paths("/authorized").build(),
+        handlerMethod(NOT_PRE_AUTHORIZED)));
+
+    assertThatThrownBy(() -> testee.onApplicationEvent(event))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("/authorized")
+        .hasMessageContaining(NOT_PRE_AUTHORIZED)
+        .hasMessageContaining("Rights are not defined for this handler");
+  }
+
+  @Test
+  void onApplicationEvent_strictInvalidExpression_throwsListingTheHandler() throws Exception {
+    FieldUtils.writeField(testee, "strict", true, true);
+    ContextRefreshedEvent event = refreshed(Map.of(
+        RequestMappingInfo.paths("/authorized/{id}").build(),
+        handlerMethod(INVALID_EXPRESSION)));
+
+    assertThatThrownBy(() -> testee.onApplicationEvent(event))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining(INVALID_EXPRESSION)
+        .hasMessageContaining("Invalid @PreAuthorize expression");
+  }
+
+  @Test
+  void onApplicationEvent_byDefault_gapsReported() throws Exception {
+    testee.onApplicationEvent(refreshed(Map.of(
+        RequestMappingInfo.paths("/authorized").build(),
+        handlerMethod(NOT_PRE_AUTHORIZED))));
+
+    assertThat(testee.getReport())
+        .extracting(EndpointSecurity::problem)
+        .containsExactly("Rights are not defined for this handler");
+  }
+
+  private HandlerMethod handlerMethod(String name) throws NoSuchMethodException {
+    return new HandlerMethod(this, getClass().getMethod(name));
+  }
+
+  private static ContextRefreshedEvent refreshed(
+      Map<RequestMappingInfo, HandlerMethod> handlerMethods) {
+    RequestMappingHandlerMapping handlerMapping = mock();
+    when(handlerMapping.getHandlerMethods()).thenReturn(handlerMethods);
+    ApplicationContext context = mock();
+    when(context.getBeansOfType(RequestMappingHandlerMapping.class))
+        .thenReturn(Map.of("requestMappingHandlerMapping", handlerMapping));
+    return new ContextRefreshedEvent(context);
+  }
+}
@@ -9,6 +9,8 @@ import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import uk.gov.defra.tracesx.common.permissions.GrantedPermissions;
+import uk.gov.defra.tracesx.common.permissions.PermissionRegistry;
 
 class IdTokenAuthenticationTest {
 
@@ -33,4 +35,18 @@ class IdTokenAuthenticationTest {
     assertThat(authentication.getAuthorities()).hasSameElementsAs(AUTHORITIES);
   }
 
+  @Test
+  void getAuthorities_grantedPermissions_returnedWithoutCopying() {
+    GrantedPermissions permissions = new PermissionRegistry().grant(List.of("read", "write"));
+    IdTokenUserDetails idTokenUserDetails = IdTokenUserDetails.builder()
+        .authorities(permissions)
+        .idToken(ID_TOKEN)
+        .userObjectId(USER_OBJECT_ID)
+        .build();
+
+    IdTokenAuthentication authentication = new IdTokenAuthentication(idTokenUserDetails);
+
+    assertThat(authentication.getAuthorities()).isSameAs(permissions);
+  }
+
 }
@@ -0,0 +1,49 @@
+package uk.gov.defra.tracesx.common.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.WebApplicationContextRunner;
+import org.springframework.security.access.expression.method.DefaultMethodSecurityExpressionHandler;
+import org.springframework.security.access.expression.method.MethodSecurityExpressionHandler;
+import org.springframework.security.access.hierarchicalroles.RoleHierarchy;
+import org.springframework.security.access.hierarchicalroles.RoleHierarchyImpl;
+
+class PermissionsMethodSecurityAutoConfigurationTest {
+
+  private final WebApplicationContextRunner contextRunner = new WebApplicationContextRunner()
+      .withConfiguration(AutoConfigurations.of(PermissionsMethodSecurityAutoConfiguration.class));
+
+  @Test
+  void methodSecurityExpressionHandler_noneDefined_permissionsHandlerUsed() {
+    contextRunner.run(context -> assertThat(context)
+        .getBean(MethodSecurityExpressionHandler.class)
+        .isInstanceOf(PermissionsMethodSecurityExpressionHandler.class));
+  }
+
+  @Test
+  void methodSecurityExpressionHandler_roleHierarchyDefined_hierarchyApplied() {
+    RoleHierarchyImpl roleHierarchy = new RoleHierarchyImpl();
+    roleHierarchy.setHierarchy("ROLE_ADMIN > ROLE_USER");
+
+    contextRunner
+        .withBean(RoleHierarchy.class, () -> roleHierarchy)
+        .run(context -> assertThat(FieldUtils.readField(
+            context.getBean(MethodSecurityExpressionHandler.class), "roleHierarchy", true))
+            .isSameAs(roleHierarchy));
+  }
+
+  @Test
+  void methodSecurityExpressionHandler_definedByApplication_backsOff() {
+    DefaultMethodSecurityExpressionHandler applicationHandler =
+        new DefaultMethodSecurityExpressionHandler();
+
+    contextRunner
+        .withBean(MethodSecurityExpressionHandler.class, () -> applicationHandler)
+        .run(context -> assertThat(context)
+            .getBean(MethodSecurityExpressionHandler.class)
+            .isSameAs(applicationHandler));
+  }
+}
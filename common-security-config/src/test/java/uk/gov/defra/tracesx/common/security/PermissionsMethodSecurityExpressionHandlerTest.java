@@ -0,0 +1,86 @@
+package uk.gov.defra.tracesx.common.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.security.access.expression.ExpressionUtils;
+import org.springframework.security.access.hierarchicalroles.RoleHierarchyImpl;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.util.SimpleMethodInvocation;
+import org.springframework.util.ReflectionUtils;
+import uk.gov.defra.tracesx.common.permissions.GrantedPermissions;
+import uk.gov.defra.tracesx.common.permissions.PermissionRegistry;
+
+class PermissionsMethodSecurityExpressionHandlerTest {
+
+  private static final Method SECURED_METHOD =
+      ReflectionUtils.findMethod(Object.class, "toString");
+
+  private final PermissionsMethodSecurityExpressionHandler handler =
+      new PermissionsMethodSecurityExpressionHandler();
+
+  @Test
+  void grantedPermissions_authoritiesCheckedAgainstTheBitset() {
+    GrantedPermissions permissions = new PermissionRegistry().grant(List.of("read", "write"));
+    EvaluationContext context = context(authentication(permissions));
+
+    assertThat(context.getRootObject().getValue())
+        .isInstanceOf(PermissionsSecurityExpressionRoot.class);
+    assertThat(evaluate("hasAuthority('read')", context)).isTrue();
+    assertThat(evaluate("hasAuthority('admin')", context)).isFalse();
+    assertThat(evaluate("hasAnyAuthority('admin', 'write')", context)).isTrue();
+    assertThat(evaluate("hasAnyAuthority('admin', 'delete')", context)).isFalse();
+  }
+
+  @Test
+  void otherAuthorities_authoritiesCheckedBySpringSecurity() {
+    EvaluationContext context =
+        context(authentication(List.of(new SimpleGrantedAuthority("read"))));
+
+    assertThat(evaluate("hasAuthority('read')", context)).isTrue();
+    assertThat(evaluate("hasAnyAuthority('admin', 'write')", context)).isFalse();
+  }
+
+  @Test
+  void otherExpressions_evaluatedAsBefore() {
+    EvaluationContext context =
+        context(authentication(new PermissionRegistry().grant(List.of("read"))));
+
+    assertThat(evaluate("isAuthenticated() and !isAnonymous()", context)).isTrue();
+    assertThat(evaluate("permitAll and !denyAll", context)).isTrue();
+    assertThat(evaluate("principal == 'e9f6447d-2979-4322-8e52-307dafdef649'", context)).isTrue();
+    assertThat(evaluate("hasRole('read')", context)).isFalse();
+  }
+
+  @Test
+  void roleHierarchy_leftToSpringSecurity() {
+    RoleHierarchyImpl roleHierarchy = new RoleHierarchyImpl();
+    roleHierarchy.setHierarchy("admin > read");
+    handler.setRoleHierarchy(roleHierarchy);
+    EvaluationContext context =
+        context(authentication(new PermissionRegistry().grant(List.of("admin"))));
+
+    assertThat(context.getRootObject().getValue())
+        .isNotInstanceOf(PermissionsSecurityExpressionRoot.class);
+    assertThat(evaluate("hasAuthority('read')", context)).isTrue();
+  }
+
+  private EvaluationContext context(Authentication authentication) {
+    return handler.createEvaluationContext(() -> authentication,
+        new SimpleMethodInvocation(this, SECURED_METHOD));
+  }
+
+  private boolean evaluate(String expression, EvaluationContext context) {
+    return ExpressionUtils.evaluateAsBoolean(
+        handler.getExpressionParser().parseExpression(expression), context);
+  }
+
+  private static Authentication authentication(List<GrantedAuthority> authorities) {
+    return new IdTokenAuthentication(IdTokenUserDetailsFixture.create(authorities));
+  }
+}
@@ -0,0 +1,32 @@
+package uk.gov.defra.tracesx.common.security.conversation.id;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.core.task.TaskDecorator;
+
+class ConversationAutoConfigurationTest {
+
+  private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+      .withConfiguration(AutoConfigurations.of(ConversationAutoConfiguration.class));
+
+  @Test
+  void conversationTaskDecorator_noneDefined_conversationTaskDecoratorUsed() {
+    contextRunner.run(context -> assertThat(context)
+        .getBean(TaskDecorator.class)
+        .isInstanceOf(ConversationTaskDecorator.class));
+  }
+
+  @Test
+  void conversationTaskDecorator_definedByApplication_backsOff() {
+    TaskDecorator applicationDecorator = runnable -> runnable;
+
+    contextRunner
+        .withBean(TaskDecorator.class, () -> applicationDecorator)
+        .run(context -> assertThat(context)
+            .getBean(TaskDecorator.class)
+            .isSameAs(applicationDecorator));
+  }
+}
@@ -0,0 +1,59 @@
+package uk.gov.defra.tracesx.common.security.conversation.id;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.net.URI;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+
+class ConversationHeadersInterceptorTest {
+
+  private static final byte[] BODY = new byte[0];
+
+  private final ConversationHeadersInterceptor interceptor = new ConversationHeadersInterceptor();
+  private final ClientHttpRequestExecution execution = mock(ClientHttpRequestExecution.class);
+  private final MockClientHttpRequest request =
+      new MockClientHttpRequest(HttpMethod.GET, URI.create("http://localhost/roles"));
+
+  @AfterEach
+  void tearDown() {
+    ConversationContext.clear();
+  }
+
+  @Test
+  void intercept_WithConversation_AddsHeaders() throws IOException {
+    ConversationContext.set(new ConversationStore("id", "1.1.1.1"));
+
+    interceptor.intercept(request, BODY, execution);
+
+    assertThat(request.getHeaders().get("INS-ConversationId")).containsExactly("id");
+    assertThat(request.getHeaders().get("INS-ConversationIp")).containsExactly("1.1.1.1");
+    verify(execution).execute(request, BODY);
+  }
+
+  @Test
+  void intercept_HeaderAlreadySet_NotReplaced() throws IOException {
+    ConversationContext.set(new ConversationStore("id", "1.1.1.1"));
+    request.getHeaders().add("INS-ConversationId", "other");
+
+    interceptor.intercept(request, BODY, execution);
+
+    assertThat(request.getHeaders().get("INS-ConversationId")).containsExactly("other");
+  }
+
+  @Test
+  void intercept_NoConversation_NoHeaders() throws IOException {
+    ConversationContext.set(new ConversationStore(null, null));
+
+    interceptor.intercept(request, BODY, execution);
+
+    assertThat(request.getHeaders()).isEmpty();
+    verify(execution).execute(request, BODY);
+  }
+}
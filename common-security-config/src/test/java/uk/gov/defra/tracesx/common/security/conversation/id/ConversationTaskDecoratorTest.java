@@ -0,0 +1,68 @@
+package uk.gov.defra.tracesx.common.security.conversation.id;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ConversationTaskDecoratorTest {
+
+  private static final ConversationStore CONVERSATION = new ConversationStore("id", "1.1.1.1");
+
+  private final ConversationTaskDecorator decorator = new ConversationTaskDecorator();
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @AfterEach
+  void tearDown() {
+    ConversationContext.clear();
+    executor.shutdownNow();
+  }
+
+  @Test
+  void decorate_noConversation_ReturnsTaskUnchanged() {
+    Runnable task = () -> { };
+
+    assertThat(decorator.decorate(task)).isSameAs(task);
+  }
+
+  @Test
+  void decorate_RunsOnAnotherThreadWithTheConversation() {
+    ConversationContext.set(new ConversationStore("id", "1.1.1.1"));
+    AtomicReference<ConversationStore> seen = new AtomicReference<>();
+
+    Runnable task = decorator.decorate(() -> seen.set(ConversationContext.current()));
+    ConversationContext.clear();
+    CompletableFuture.runAsync(task, executor).join();
+
+    assertThat(seen.get()).isEqualTo(CONVERSATION);
+    assertThat(CompletableFuture.supplyAsync(ConversationContext::current, executor).join())
+        .isNull();
+  }
+
+  @Test
+  void decorate_RunOnTheSubmittingThread_RestoresItsConversation() {
+    ConversationStore previous = new ConversationStore("previous", "2.2.2.2");
+    ConversationContext.set(CONVERSATION);
+    Runnable task = decorator.decorate(() -> { });
+    ConversationContext.set(previous);
+
+    task.run();
+
+    assertThat(ConversationContext.current()).isSameAs(previous);
+  }
+
+  @Test
+  void wrap_RunsTasksWithTheConversationOfTheirCaller() {
+    ConversationContext.set(CONVERSATION);
+
+    ConversationStore seen = CompletableFuture
+        .supplyAsync(ConversationContext::current, ConversationTaskDecorator.wrap(executor))
+        .join();
+
+    assertThat(seen).isEqualTo(CONVERSATION).isNotSameAs(CONVERSATION);
+  }
+}
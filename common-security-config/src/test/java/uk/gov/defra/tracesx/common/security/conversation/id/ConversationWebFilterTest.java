@@ -0,0 +1,58 @@
+package uk.gov.defra.tracesx.common.security.conversation.id;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+
+class ConversationWebFilterTest {
+
+  private static final String CONVERSATION_ID = UUID.randomUUID().toString();
+  private static final String CONVERSATION_IP_HEADER = "1.1.1.1:1111";
+  private static final String CONVERSATION_IP = "1.1.1.1";
+  private static final String DEFAULT_CONVERSATION_IP = "0.0.0.0";
+
+  private final ConversationWebFilter conversationWebFilter = new ConversationWebFilter();
+
+  @Test
+  void filter_withCorrectHeaders_conversationAvailableToTheChain() {
+    MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/")
+        .header("INS-ConversationId", CONVERSATION_ID)
+        .header("INS-ConversationIp", CONVERSATION_IP_HEADER));
+
+    ConversationStore conversation = filter(exchange);
+
+    assertThat(conversation.getConversationId()).isEqualTo(CONVERSATION_ID);
+    assertThat(conversation.getConversationIp()).isEqualTo(CONVERSATION_IP);
+  }
+
+  @Test
+  void filter_withNoHeaders_defaultConversationIp() {
+    MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/"));
+
+    ConversationStore conversation = filter(exchange);
+
+    assertThat(conversation.getConversationId()).isNull();
+    assertThat(conversation.getConversationIp()).isEqualTo(DEFAULT_CONVERSATION_IP);
+  }
+
+  @Test
+  void conversation_outsideOfARequest_isEmpty() {
+    ConversationStore conversation = ConversationWebFilter.conversation().block();
+
+    assertThat(conversation.getConversationId()).isNull();
+    assertThat(conversation.getConversationIp()).isNull();
+  }
+
+  private ConversationStore filter(MockServerWebExchange exchange) {
+    AtomicReference<ConversationStore> conversation = new AtomicReference<>();
+    WebFilterChain chain = filteredExchange ->
+        ConversationWebFilter.conversation().doOnNext(conversation::set).then();
+    conversationWebFilter.filter(exchange, chain).block();
+    return conversation.get();
+  }
+}
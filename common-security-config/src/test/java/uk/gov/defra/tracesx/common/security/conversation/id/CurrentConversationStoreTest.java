@@ -0,0 +1,59 @@
+package uk.gov.defra.tracesx.common.security.conversation.id;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class CurrentConversationStoreTest {
+
+  private final CurrentConversationStore conversationStore = new CurrentConversationStore();
+
+  @AfterEach
+  void tearDown() {
+    ConversationContext.clear();
+  }
+
+  @Test
+  void noConversation_ValuesNull() {
+    assertThat(conversationStore.getConversationId()).isNull();
+    assertThat(conversationStore.getConversationIp()).isNull();
+    assertThat(ConversationContext.current()).isNull();
+  }
+
+  @Test
+  void set_HeldByTheCurrentThread() {
+    conversationStore.setConversationId("id");
+    conversationStore.setConversationIp("ip");
+
+    assertThat(conversationStore.getConversationId()).isEqualTo("id");
+    assertThat(conversationStore.getConversationIp()).isEqualTo("ip");
+    assertThat(ConversationContext.current()).isEqualTo(new ConversationStore("id", "ip"));
+  }
+
+  @Test
+  void set_NotVisibleToOtherThreads() {
+    conversationStore.setConversationId("id");
+
+    String otherThreadId = CompletableFuture.supplyAsync(() -> {
+      conversationStore.setConversationId("other");
+      String id = conversationStore.getConversationId();
+      conversationStore.clear();
+      return id;
+    }).join();
+
+    assertThat(otherThreadId).isEqualTo("other");
+    assertThat(conversationStore.getConversationId()).isEqualTo("id");
+  }
+
+  @Test
+  void clear_RemovesTheConversation() {
+    conversationStore.setConversationId("id");
+
+    conversationStore.clear();
+
+    assertThat(conversationStore.getConversationId()).isNull();
+    assertThat(ConversationContext.current()).isNull();
+  }
+}
@@ -0,0 +1,140 @@
+package uk.gov.defra.tracesx.common.security.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static uk.gov.defra.tracesx.common.security.filter.PermissionsFilter.ROLES_ARE_EMPTY;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.util.matcher.AnyRequestMatcher;
+import uk.gov.defra.tracesx.common.exceptions.PermissionsAuthenticationException;
+import uk.gov.defra.tracesx.common.permissions.PermissionsCache;
+import uk.gov.defra.tracesx.common.security.IdTokenAuthentication;
+import uk.gov.defra.tracesx.common.security.IdTokenUserDetails;
+import uk.gov.defra.tracesx.common.security.jwt.JwtTokenValidator;
+
+@ExtendWith(MockitoExtension.class)
+class JwtPermissionsFilterTest {
+
+  private static final String TOKEN = "asdf.asdf.asdf";
+  private static final String BEARER_TOKEN = "Bearer " + TOKEN;
+  private static final String ROLE = "ROLE";
+  private static final String PERMISSION = "PERMISSION";
+  private static final String USER_OBJECT_ID = "e9f6447d-2979-4322-8e52-307dafdef649";
+  private static final String CUSTOMER_ORGANISATION_ID = "bb55e17d-f6c8-40df-9d8f-19a7d9f5bdcc";
+
+  @Mock
+  private JwtTokenValidator jwtTokenValidator;
+
+  @Mock
+  private PermissionsCache permissionsCache;
+
+  @Mock
+  private HttpServletRequest request;
+
+  @Mock
+  private HttpServletResponse response;
+
+  @Mock
+  private FilterChain chain;
+
+  private JwtPermissionsFilter filter;
+
+  @BeforeEach
+  public void before() {
+    filter = new JwtPermissionsFilter(
+        AnyRequestMatcher.INSTANCE, jwtTokenValidator, permissionsCache);
+  }
+
+  @AfterEach
+  public void after() {
+    SecurityContextHolder.clearContext();
+  }
+
+  @Test
+  void attemptAuthentication_validTokenWithRoles_authenticatesWithPermissions() {
+    List<GrantedAuthority> permissions = List.of(new SimpleGrantedAuthority(PERMISSION));
+    when(request.getHeader(HttpHeaders.AUTHORIZATION)).thenReturn(BEARER_TOKEN);
+    IdTokenUserDetails tokenUser = userDetails(ROLE);
+    when(jwtTokenValidator.validateToken(TOKEN)).thenReturn(tokenUser);
+    when(permissionsCache.grantedAuthorities(tokenUser, List.of(ROLE), BEARER_TOKEN))
+        .thenReturn(permissions);
+
+    Authentication authentication = filter.attemptAuthentication(request, response);
+
+    assertThat(authentication).isInstanceOf(IdTokenAuthentication.class);
+    assertThat(List.<GrantedAuthority>copyOf(authentication.getAuthorities()))
+        .isEqualTo(permissions);
+    assertThat(authentication.getPrincipal()).isEqualTo(USER_OBJECT_ID);
+    assertThat(authentication.getCredentials()).isEqualTo(TOKEN);
+    IdTokenUserDetails details = (IdTokenUserDetails) authentication.getDetails();
+    assertThat(details.getAuthorities()).isSameAs(permissions);
+    assertThat(details.getCustomerOrganisationId()).isEqualTo(CUSTOMER_ORGANISATION_ID);
+  }
+
+  @Test
+  void doFilter_validTokenWithRoles_publishesOneAuthentication() throws Exception {
+    when(request.getHeader(HttpHeaders.AUTHORIZATION)).thenReturn(BEARER_TOKEN);
+    IdTokenUserDetails tokenUser = userDetails(ROLE);
+    when(jwtTokenValidator.validateToken(TOKEN)).thenReturn(tokenUser);
+    when(permissionsCache.grantedAuthorities(tokenUser, List.of(ROLE), BEARER_TOKEN))
+        .thenReturn(List.of(new SimpleGrantedAuthority(PERMISSION)));
+
+    filter.doFilter(request, response, chain);
+
+    Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+    assertThat(List.<GrantedAuthority>copyOf(authentication.getAuthorities()))
+        .containsExactly(new SimpleGrantedAuthority(PERMISSION));
+    verify(chain).doFilter(request, response);
+  }
+
+  @Test
+  void attemptAuthentication_noBearerToken_throwsAuthenticationException() {
+    when(request.getHeader(HttpHeaders.AUTHORIZATION)).thenReturn("Basic " + TOKEN);
+
+    assertThatThrownBy(() -> filter.attemptAuthentication(request, response))
+        .isInstanceOf(AuthenticationCredentialsNotFoundException.class);
+
+    verifyNoInteractions(jwtTokenValidator, permissionsCache);
+  }
+
+  @Test
+  void attemptAuthentication_tokenWithoutRoles_throwsAuthenticationException() {
+    when(request.getHeader(HttpHeaders.AUTHORIZATION)).thenReturn(BEARER_TOKEN);
+    when(jwtTokenValidator.validateToken(TOKEN)).thenReturn(userDetails());
+
+    assertThatThrownBy(() -> filter.attemptAuthentication(request, response))
+        .isInstanceOf(PermissionsAuthenticationException.class)
+        .hasMessageContaining(ROLES_ARE_EMPTY);
+
+    verifyNoInteractions(permissionsCache);
+  }
+
+  private static IdTokenUserDetails userDetails(String... roles) {
+    return IdTokenUserDetails.builder()
+        .idToken(TOKEN)
+        .userObjectId(USER_OBJECT_ID)
+        .customerOrganisationId(CUSTOMER_ORGANISATION_ID)
+        .authorities(List.of(roles).stream()
+            .<GrantedAuthority>map(SimpleGrantedAuthority::new)
+            .toList())
+        .build();
+  }
+}
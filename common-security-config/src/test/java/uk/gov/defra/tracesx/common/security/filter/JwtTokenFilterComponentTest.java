@@ -8,6 +8,7 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -212,7 +213,8 @@ class JwtTokenFilterComponentTest {
     verify(jwkProviderFactory).createUrlJwkProvider(new URL(JWKS_URL1));
     verify(jwkProviderFactory).createUrlJwkProvider(new URL(JWKS_URL2));
 
-    verify(jwkProvider1, times(2)).get(JWK_ELEMENT1.getKid());
+    // the expired key is served while it is reloaded in the background
+    verify(jwkProvider1, timeout(1000).times(2)).get(JWK_ELEMENT1.getKid());
     verify(jwkProvider2).get(JWK_ELEMENT1.getKid());
 
     verify(jwksCache, times(2)).getPublicKeys(JWK_ELEMENT1.getKid());
@@ -109,7 +109,7 @@ class PermissionsFilterTest {
   void doFilter_userHasNoPermissions_throwsAuthenticationException() {
     mockAuthenticationSingleton(List.of(new SimpleGrantedAuthority(ROLE)));
     when(request.getHeader(HttpHeaders.AUTHORIZATION)).thenReturn(BEARER_TOKEN);
-    when(permissionsCache.permissionsList(ROLE, BEARER_TOKEN))
+    when(permissionsCache.grantedAuthorities(userDetails, List.of(ROLE), BEARER_TOKEN))
         .thenReturn(Collections.emptyList());
 
     assertThatThrownBy(() -> permissionsFilter.attemptAuthentication(request, response))
@@ -119,15 +119,15 @@ class PermissionsFilterTest {
     verify(authentication, times(1)).getDetails();
     verify(userDetails, times(1)).getAuthorities();
     verify(request).getHeader(HttpHeaders.AUTHORIZATION);
-    verify(permissionsCache).permissionsList(ROLE, BEARER_TOKEN);
+    verify(permissionsCache).grantedAuthorities(userDetails, List.of(ROLE), BEARER_TOKEN);
   }
 
   @Test
   void doFilter_userHasSingleRoleAndPermission_amendsAuthentication() {
     mockAuthenticationSingleton(List.of(new SimpleGrantedAuthority(ROLE)));
     when(request.getHeader(HttpHeaders.AUTHORIZATION)).thenReturn(BEARER_TOKEN);
-    when(permissionsCache.permissionsList(ROLE, BEARER_TOKEN))
-        .thenReturn(List.of(PERMISSION));
+    when(permissionsCache.grantedAuthorities(userDetails, List.of(ROLE), BEARER_TOKEN))
+        .thenReturn(List.of(new SimpleGrantedAuthority(PERMISSION)));
 
     Authentication amendedAuthentication = permissionsFilter.attemptAuthentication(request,
         response);
@@ -135,11 +135,11 @@ class PermissionsFilterTest {
     assertThat((Collection<GrantedAuthority>) amendedAuthentication.getAuthorities()).containsOnly(
         expectedAuthority);
 
-    verify(authentication, times(2)).getDetails();
+    verify(authentication, times(1)).getDetails();
     verify(userDetails, times(1)).getAuthorities();
     verify(userDetails, times(1)).getCustomerOrganisationId();
     verify(request).getHeader(HttpHeaders.AUTHORIZATION);
-    verify(permissionsCache).permissionsList(ROLE, BEARER_TOKEN);
+    verify(permissionsCache).grantedAuthorities(userDetails, List.of(ROLE), BEARER_TOKEN);
   }
 
   @Test
@@ -153,27 +153,22 @@ class PermissionsFilterTest {
         ROLES.stream().<GrantedAuthority>map(SimpleGrantedAuthority::new).toList()
     );
     when(request.getHeader(HttpHeaders.AUTHORIZATION)).thenReturn(BEARER_TOKEN);
-    when(permissionsCache.permissionsList(role1, BEARER_TOKEN))
-        .thenReturn(PERMISSIONS_ROLE1);
-    when(permissionsCache.permissionsList(role2, BEARER_TOKEN))
-        .thenReturn(PERMISSIONS_ROLE2);
-
-    Authentication amendedAuthentication = permissionsFilter.attemptAuthentication(request,
-        response);
-
     List<GrantedAuthority> expectedAuthorities = Stream.of(PERMISSIONS_ROLE1, PERMISSIONS_ROLE2)
             .flatMap(List::stream)
             .<GrantedAuthority>map(SimpleGrantedAuthority::new)
             .toList();
+    when(permissionsCache.grantedAuthorities(userDetails, ROLES, BEARER_TOKEN)).thenReturn(expectedAuthorities);
+
+    Authentication amendedAuthentication = permissionsFilter.attemptAuthentication(request,
+        response);
 
     assertThat(amendedAuthentication.getAuthorities()).isEqualTo(expectedAuthorities);
 
-    verify(authentication, times(2)).getDetails();
+    verify(authentication, times(1)).getDetails();
     verify(userDetails, times(1)).getAuthorities();
     verify(userDetails, times(1)).getCustomerOrganisationId();
     verify(request).getHeader(HttpHeaders.AUTHORIZATION);
-    verify(permissionsCache).permissionsList(role1, BEARER_TOKEN);
-    verify(permissionsCache).permissionsList(role2, BEARER_TOKEN);
+    verify(permissionsCache).grantedAuthorities(userDetails, ROLES, BEARER_TOKEN);
   }
 
   @Test
@@ -191,18 +186,18 @@ class PermissionsFilterTest {
         .thenReturn(CUSTOMER_ORGANISATION_ID);
     when(userDetails.getCustomerId())
         .thenReturn(CUSTOMER_ID);
-    when(permissionsCache.permissionsList(ROLE, BEARER_TOKEN))
-        .thenReturn(List.of(PERMISSION));
+    when(permissionsCache.grantedAuthorities(userDetails, List.of(ROLE, ROLE), BEARER_TOKEN))
+        .thenReturn(List.of(new SimpleGrantedAuthority(PERMISSION)));
 
     permissionsFilter.attemptAuthentication(request, response);
 
     assertThat(userDetails.getCustomerOrganisationId()).isEqualTo(CUSTOMER_ORGANISATION_ID);
     assertThat(userDetails.getCustomerId()).isEqualTo(CUSTOMER_ID);
 
-    verify(authentication, times(2)).getDetails();
+    verify(authentication, times(1)).getDetails();
     verify(userDetails, times(1)).getAuthorities();
     verify(request).getHeader(HttpHeaders.AUTHORIZATION);
-    verify(permissionsCache, times(2)).permissionsList(ROLE, BEARER_TOKEN);
+    verify(permissionsCache).grantedAuthorities(userDetails, List.of(ROLE, ROLE), BEARER_TOKEN);
   }
 
   @Test
@@ -1,15 +1,26 @@
 package uk.gov.defra.tracesx.common.security.jwks;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import com.auth0.jwk.Jwk;
 import com.auth0.jwk.JwkProvider;
+import com.auth0.jwk.NetworkException;
+import com.auth0.jwk.SigningKeyNotFoundException;
+import com.auth0.jwk.UrlJwkProvider;
+import com.nimbusds.jwt.JWTClaimsSet;
 import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -22,6 +33,7 @@ class ClaimsAwareJwkProviderTest {
   private static final String ISSUER = "http://issuer.com/";
   private static final String AUDIENCE = "ec00835d-a3a2-42c8-b849-9b4cbf7bf92c";
   private static final String KEY_ID = "OGZiYTNmNGUtYTM5Zi00NGRhLTgxYjYtMDNiNDc0MDAzMDBk";
+  private static final String OTHER_KEY_ID = "ZTk0NGQ3YzEtNmQ4MS00OWE3LWJiYzEtNzI1YjE0YjQ0NmJi";
   @Mock
   Jwk jwk;
   @Mock
@@ -42,6 +54,21 @@ class ClaimsAwareJwkProviderTest {
     verify(jwkProvider).get(KEY_ID);
   }
 
+  @Test
+  void getIfPresent_keyNotCached_returnsNullWithoutFetching() throws Exception {
+    assertThat(claimsAwareJwkProvider.getIfPresent(KEY_ID)).isNull();
+    verifyNoInteractions(jwkProvider);
+  }
+
+  @Test
+  void getIfPresent_keyCached_returnsKey() throws Exception {
+    when(jwkProvider.get(KEY_ID)).thenReturn(jwk);
+    claimsAwareJwkProvider.get(KEY_ID);
+
+    assertThat(claimsAwareJwkProvider.getIfPresent(KEY_ID)).isSameAs(jwk);
+    verify(jwkProvider).get(KEY_ID);
+  }
+
   @Test
   void get_calledTwice_keyIsFetchedOnce() throws Exception {
     when(jwkProvider.get(KEY_ID)).thenReturn(jwk);
@@ -60,7 +87,130 @@ class ClaimsAwareJwkProviderTest {
     Jwk result2 = claimsAwareJwkProvider.get("OGZiYTNmNGUtYTM5Zi00NGRhLTgxYjYtMDNiNDc0MDAzMDBk");
     assertThat(result1).isSameAs(jwk);
     assertThat(result2).isSameAs(jwk);
-    verify(jwkProvider, times(2)).get(KEY_ID);
+    // the expired key is reloaded in the background
+    verify(jwkProvider, timeout(1000).times(2)).get(KEY_ID);
+  }
+
+  @Test
+  void get_afterExpiresInWhenJwksUnreachable_lastKnownKeyIsReturned() throws Exception {
+    when(jwkProvider.get(KEY_ID))
+        .thenReturn(jwk)
+        .thenThrow(new NetworkException("unreachable", null));
+    claimsAwareJwkProvider.get(KEY_ID);
+    await().pollDelay(Duration.ofMillis(750)).until(() -> true);
+    claimsAwareJwkProvider.get(KEY_ID);
+    verify(jwkProvider, timeout(1000).times(2)).get(KEY_ID);
+
+    assertThat(claimsAwareJwkProvider.get(KEY_ID)).isSameAs(jwk);
+  }
+
+  @Test
+  void get_afterExpiresInWhenKeyNoLongerPublished_keyIsDropped() throws Exception {
+    when(jwkProvider.get(KEY_ID))
+        .thenReturn(jwk)
+        .thenThrow(new SigningKeyNotFoundException("not found", null));
+    claimsAwareJwkProvider.get(KEY_ID);
+    await().pollDelay(Duration.ofMillis(750)).until(() -> true);
+    claimsAwareJwkProvider.get(KEY_ID);
+    verify(jwkProvider, timeout(1000).times(2)).get(KEY_ID);
+
+    await().atMost(Duration.ofSeconds(1)).untilAsserted(() ->
+        assertThatExceptionOfType(SigningKeyNotFoundException.class)
+            .isThrownBy(() -> claimsAwareJwkProvider.get(KEY_ID)));
+  }
+
+  @Test
+  void get_keyNotFound_throwsProviderException() throws Exception {
+    SigningKeyNotFoundException notFound = new SigningKeyNotFoundException("not found", null);
+    when(jwkProvider.get(KEY_ID)).thenThrow(notFound);
+
+    assertThatExceptionOfType(SigningKeyNotFoundException.class)
+        .isThrownBy(() -> claimsAwareJwkProvider.get(KEY_ID))
+        .isSameAs(notFound);
+  }
+
+  @Test
+  void refresh_urlProvider_allKeysFetchedWithOneRequest() throws Exception {
+    UrlJwkProvider urlJwkProvider = mock(UrlJwkProvider.class);
+    Jwk otherJwk = mock(Jwk.class);
+    when(jwk.getId()).thenReturn(KEY_ID);
+    when(otherJwk.getId()).thenReturn(OTHER_KEY_ID);
+    when(urlJwkProvider.getAll()).thenReturn(List.of(jwk, otherJwk));
+    claimsAwareJwkProvider = new ClaimsAwareJwkProvider(urlJwkProvider, 5, 500,
+        TimeUnit.MILLISECONDS, ISSUER, AUDIENCE);
+
+    claimsAwareJwkProvider.refresh();
+
+    assertThat(claimsAwareJwkProvider.get(KEY_ID)).isSameAs(jwk);
+    assertThat(claimsAwareJwkProvider.get(OTHER_KEY_ID)).isSameAs(otherJwk);
+    verify(urlJwkProvider).getAll();
+    verifyNoMoreInteractions(urlJwkProvider);
+  }
+
+  @Test
+  void refresh_morePublishedKeysThanMaximum_allKeysKept() throws Exception {
+    UrlJwkProvider urlJwkProvider = mock(UrlJwkProvider.class);
+    List<Jwk> jwks = IntStream.range(0, 7).mapToObj(index -> {
+      Jwk publishedJwk = mock(Jwk.class);
+      when(publishedJwk.getId()).thenReturn("kid-" + index);
+      return publishedJwk;
+    }).toList();
+    when(urlJwkProvider.getAll()).thenReturn(jwks);
+    claimsAwareJwkProvider = new ClaimsAwareJwkProvider(urlJwkProvider, 5, 500,
+        TimeUnit.MILLISECONDS, ISSUER, AUDIENCE, Runnable::run);
+
+    claimsAwareJwkProvider.refresh();
+
+    for (Jwk publishedJwk : jwks) {
+      assertThat(claimsAwareJwkProvider.getIfPresent(publishedJwk.getId())).isSameAs(publishedJwk);
+    }
+  }
+
+  @Test
+  void refresh_keyNoLongerPublished_keyIsDropped() throws Exception {
+    UrlJwkProvider urlJwkProvider = mock(UrlJwkProvider.class);
+    Jwk otherJwk = mock(Jwk.class);
+    when(jwk.getId()).thenReturn(KEY_ID);
+    when(otherJwk.getId()).thenReturn(OTHER_KEY_ID);
+    when(urlJwkProvider.getAll()).thenReturn(List.of(jwk, otherJwk), List.of(otherJwk));
+    when(urlJwkProvider.get(KEY_ID)).thenThrow(new SigningKeyNotFoundException("not found", null));
+    claimsAwareJwkProvider = new ClaimsAwareJwkProvider(urlJwkProvider, 5, 500,
+        TimeUnit.MILLISECONDS, ISSUER, AUDIENCE);
+
+    assertThat(claimsAwareJwkProvider.refresh()).isEmpty();
+    assertThat(claimsAwareJwkProvider.refresh()).containsExactly(KEY_ID);
+
+    assertThatExceptionOfType(SigningKeyNotFoundException.class)
+        .isThrownBy(() -> claimsAwareJwkProvider.get(KEY_ID));
+    assertThat(claimsAwareJwkProvider.get(OTHER_KEY_ID)).isSameAs(otherJwk);
+  }
+
+  @Test
+  void refresh_jwksUnreachable_lastKnownKeysKept() throws Exception {
+    UrlJwkProvider urlJwkProvider = mock(UrlJwkProvider.class);
+    when(jwk.getId()).thenReturn(KEY_ID);
+    when(urlJwkProvider.getAll())
+        .thenReturn(List.of(jwk))
+        .thenThrow(new NetworkException("unreachable", null));
+    claimsAwareJwkProvider = new ClaimsAwareJwkProvider(urlJwkProvider, 5, 500,
+        TimeUnit.MILLISECONDS, ISSUER, AUDIENCE);
+
+    claimsAwareJwkProvider.refresh();
+    claimsAwareJwkProvider.refresh();
+
+    assertThat(claimsAwareJwkProvider.get(KEY_ID)).isSameAs(jwk);
+    verify(urlJwkProvider, times(2)).getAll();
+    verifyNoMoreInteractions(urlJwkProvider);
+  }
+
+  @Test
+  void refresh_otherProvider_cachedKeysReloaded() throws Exception {
+    when(jwkProvider.get(KEY_ID)).thenReturn(jwk);
+    claimsAwareJwkProvider.get(KEY_ID);
+
+    claimsAwareJwkProvider.refresh();
+
+    verify(jwkProvider, timeout(1000).times(2)).get(KEY_ID);
   }
 
   @Test
@@ -72,4 +222,15 @@ class ClaimsAwareJwkProviderTest {
   void getAudience_returnsAudience() {
     assertThat(claimsAwareJwkProvider.getAudience()).isEqualTo(AUDIENCE);
   }
+
+  @Test
+  void getClaimsVerifier_verifiesIssuerAndAudienceOfProvider() {
+    ClaimsVerifier claimsVerifier = claimsAwareJwkProvider.getClaimsVerifier();
+
+    assertThat(claimsVerifier.appliesTo(
+        new JWTClaimsSet.Builder().issuer(ISSUER).audience(AUDIENCE).build())).isTrue();
+    assertThat(claimsVerifier.appliesTo(
+        new JWTClaimsSet.Builder().issuer(ISSUER).audience("other").build())).isFalse();
+    assertThat(claimsAwareJwkProvider.getClaimsVerifier()).isSameAs(claimsVerifier);
+  }
 }
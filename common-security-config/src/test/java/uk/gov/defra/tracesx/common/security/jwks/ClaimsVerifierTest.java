@@ -0,0 +1,101 @@
+package uk.gov.defra.tracesx.common.security.jwks;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ClaimsVerifierTest {
+
+  private static final String ISS = "http://issuer.com";
+  private static final String AUD = "2d792919-3a36-4edd-9736-edd43b157067";
+  private static final Instant NOW = Instant.parse("2024-01-01T12:00:00Z");
+
+  private final ClaimsVerifier claimsVerifier =
+      new ClaimsVerifier(ISS, AUD, Clock.fixed(NOW, ZoneOffset.UTC));
+
+  @Test
+  void verify_validClaims_returnsSuccess() {
+    assertThat(claimsVerifier.verify(validClaims().build()))
+        .isEqualTo(ClaimsVerificationResult.SUCCESS);
+  }
+
+  @Test
+  void verify_otherIssuer_returnsInvalidIssuer() {
+    assertThat(claimsVerifier.verify(validClaims().issuer("http://other.com").build()))
+        .isEqualTo(ClaimsVerificationResult.INVALID_ISSUER);
+  }
+
+  @Test
+  void verify_missingIssuer_returnsInvalidIssuer() {
+    assertThat(claimsVerifier.verify(validClaims().issuer(null).build()))
+        .isEqualTo(ClaimsVerificationResult.INVALID_ISSUER);
+  }
+
+  @Test
+  void verify_otherAudience_returnsInvalidAudience() {
+    assertThat(claimsVerifier.verify(validClaims().audience("other").build()))
+        .isEqualTo(ClaimsVerificationResult.INVALID_AUDIENCE);
+  }
+
+  @Test
+  void verify_additionalAudience_returnsInvalidAudience() {
+    assertThat(claimsVerifier.verify(validClaims().audience(List.of(AUD, "other")).build()))
+        .isEqualTo(ClaimsVerificationResult.INVALID_AUDIENCE);
+  }
+
+  @Test
+  void verify_missingExpiry_returnsMissingExpiry() {
+    assertThat(claimsVerifier.verify(validClaims().expirationTime(null).build()))
+        .isEqualTo(ClaimsVerificationResult.MISSING_EXPIRY);
+  }
+
+  @Test
+  void verify_expiredBeyondClockSkew_returnsExpired() {
+    Date expiry = Date.from(NOW.minus(ClaimsVerifier.MAX_CLOCK_SKEW).minusSeconds(1));
+    assertThat(claimsVerifier.verify(validClaims().expirationTime(expiry).build()))
+        .isEqualTo(ClaimsVerificationResult.EXPIRED);
+  }
+
+  @Test
+  void verify_expiredWithinClockSkew_returnsSuccess() {
+    Date expiry = Date.from(NOW.minusSeconds(30));
+    assertThat(claimsVerifier.verify(validClaims().expirationTime(expiry).build()))
+        .isEqualTo(ClaimsVerificationResult.SUCCESS);
+  }
+
+  @Test
+  void verify_notBeforeBeyondClockSkew_returnsNotYetValid() {
+    Date notBefore = Date.from(NOW.plus(ClaimsVerifier.MAX_CLOCK_SKEW).plusSeconds(1));
+    assertThat(claimsVerifier.verify(validClaims().notBeforeTime(notBefore).build()))
+        .isEqualTo(ClaimsVerificationResult.NOT_YET_VALID);
+  }
+
+  @Test
+  void appliesTo_expectedIssuerAndAudience_returnsTrue() {
+    assertThat(claimsVerifier.appliesTo(validClaims().expirationTime(null).build())).isTrue();
+  }
+
+  @Test
+  void appliesTo_otherIssuer_returnsFalse() {
+    assertThat(claimsVerifier.appliesTo(validClaims().issuer("http://other.com").build()))
+        .isFalse();
+  }
+
+  @Test
+  void appliesTo_otherAudience_returnsFalse() {
+    assertThat(claimsVerifier.appliesTo(validClaims().audience("other").build())).isFalse();
+  }
+
+  private JWTClaimsSet.Builder validClaims() {
+    return new JWTClaimsSet.Builder()
+        .issuer(ISS)
+        .audience(AUD)
+        .expirationTime(Date.from(NOW.plusSeconds(600)));
+  }
+}
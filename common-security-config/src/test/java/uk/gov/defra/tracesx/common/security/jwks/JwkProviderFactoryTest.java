@@ -2,6 +2,8 @@ package uk.gov.defra.tracesx.common.security.jwks;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.auth0.jwk.JwkProvider;
+import com.auth0.jwk.UrlJwkProvider;
 import java.net.MalformedURLException;
 import java.net.URL;
 import org.apache.commons.lang3.reflect.FieldUtils;
@@ -31,4 +33,16 @@ class JwkProviderFactoryTest {
     assertThat(jwkProvider.getIssuer()).isEqualTo(ISSUER);
   }
 
+  @Test
+  void createUrlJwkProvider_timesOutAfterTheKeyLookupTimeout() throws Exception {
+    JwkProviderFactory jwkProviderFactory = new JwkProviderFactory();
+    FieldUtils.writeField(jwkProviderFactory, "keyLookupTimeoutMillis", 2000, true);
+
+    JwkProvider jwkProvider = jwkProviderFactory.createUrlJwkProvider(JWKS_URL);
+
+    assertThat(jwkProvider).isInstanceOf(UrlJwkProvider.class);
+    assertThat(FieldUtils.readField(jwkProvider, "connectTimeout", true)).isEqualTo(2000);
+    assertThat(FieldUtils.readField(jwkProvider, "readTimeout", true)).isEqualTo(2000);
+  }
+
 }
@@ -4,6 +4,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -12,9 +15,19 @@ import static org.mockito.Mockito.when;
 import com.auth0.jwk.InvalidPublicKeyException;
 import com.auth0.jwk.Jwk;
 import com.auth0.jwk.JwkException;
+import com.auth0.jwk.SigningKeyNotFoundException;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import java.security.KeyPairGenerator;
 import java.security.PublicKey;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -34,6 +47,12 @@ class JwksCacheTest {
   private static final String AUD2 = "d75ab74a-4751-4e8c-8ed0-2c54dd40bf4a";
   private static final String ISS2 = "http://first-cert-issuer.com";
 
+  private static final JwksCacheSettings SETTINGS =
+      JwksCacheSettings.builder()
+          .maxIndexedKeys(2)
+          .keyLookupTimeout(Duration.ofSeconds(2))
+          .build();
+
   @Mock
   private JwkProviderFactory jwkProviderFactory;
 
@@ -53,7 +72,7 @@ class JwksCacheTest {
 
   @BeforeEach
   public void setUp() {
-    when(jwkProvider1.getIssuer()).thenReturn(ISS1);
+    lenient().when(jwkProvider1.getIssuer()).thenReturn(ISS1);
     List<JwksConfiguration> configurationList =
         Arrays.asList(
             JwksConfiguration.builder().build(),
@@ -61,7 +80,7 @@ class JwksCacheTest {
     when(jwkProviderFactory.newInstance(any()))
         .thenReturn(jwkProvider1)
         .thenReturn(jwkProvider2);
-    jwksCache = new JwksCache(configurationList, jwkProviderFactory);
+    jwksCache = new JwksCache(configurationList, jwkProviderFactory, SETTINGS);
   }
 
   @AfterEach
@@ -72,8 +91,10 @@ class JwksCacheTest {
 
   @Test
   void getPublicKey_keyFoundAfterProviderScan_returnsKeyAndClaims() throws Exception {
+    ClaimsVerifier claimsVerifier = new ClaimsVerifier(ISS2, AUD2);
     when(jwkProvider2.getAudience()).thenReturn(AUD2);
     when(jwkProvider2.getIssuer()).thenReturn(ISS2);
+    when(jwkProvider2.getClaimsVerifier()).thenReturn(claimsVerifier);
     when(jwkProvider1.get(anyString())).thenThrow(new JwkException("not found"));
     when(jwk.getPublicKey()).thenReturn(publicKey);
     when(jwkProvider2.get(anyString())).thenReturn(jwk);
@@ -82,11 +103,13 @@ class JwksCacheTest {
     assertThat(keyAndClaim.getKey()).isEqualTo(publicKey);
     assertThat(keyAndClaim.getAud()).isEqualTo(AUD2);
     assertThat(keyAndClaim.getIss()).isEqualTo(ISS2);
+    assertThat(keyAndClaim.getClaimsVerifier()).isSameAs(claimsVerifier);
     verify(jwkProvider1).get(KID2);
     verify(jwkProvider1).getIssuer(); // logging
     verify(jwkProvider2, times(2)).get(KID2);
     verify(jwkProvider2).getIssuer();
     verify(jwkProvider2).getAudience();
+    verify(jwkProvider2).getClaimsVerifier();
   }
 
   @Test
@@ -111,12 +134,17 @@ class JwksCacheTest {
     assertThat(keyAndClaim.getAud()).isEqualTo(AUD1);
     assertThat(keyAndClaim.getIss()).isEqualTo(ISS1);
     verify(jwkProvider1, times(3)).get(KID1);
-    verify(jwkProvider1, times(2)).getAudience();
-    verify(jwkProvider1, times(2)).getIssuer();
+    verify(jwkProvider1).getAudience();
+    verify(jwkProvider1).getClaimsVerifier();
+    verify(jwkProvider1).getIssuer();
 
     verify(jwkProvider2, times(3)).get(KID1);
-    verify(jwkProvider2, times(2)).getAudience();
-    verify(jwkProvider2, times(2)).getIssuer();
+    verify(jwkProvider2).getAudience();
+    verify(jwkProvider2).getClaimsVerifier();
+    verify(jwkProvider2).getIssuer();
+
+    // the decoded key of each provider is reused
+    verify(jwk, times(2)).getPublicKey();
   }
 
   @Test
@@ -142,7 +170,9 @@ class JwksCacheTest {
     verify(jwkProvider1).getIssuer(); // logging
     verify(jwkProvider2).getIssuer();
     verify(jwkProvider1).getAudience();
+    verify(jwkProvider1).getClaimsVerifier();
     verify(jwkProvider2).getAudience();
+    verify(jwkProvider2).getClaimsVerifier();
   }
 
   @Test
@@ -170,4 +200,327 @@ class JwksCacheTest {
     verify(jwkProvider1, times(1)).getAudience();
     verify(jwkProvider1, times(1)).getIssuer();
   }
+
+  @Test
+  void getPublicKeys_repeatedLookups_indexHoldsOneEntryPerKid() throws Exception {
+    when(jwkProvider1.getAudience()).thenReturn(AUD1);
+    when(jwk.getPublicKey()).thenReturn(publicKey);
+    when(jwkProvider1.get(anyString())).thenReturn(jwk);
+    when(jwkProvider2.get(anyString())).thenThrow(new JwkException("not found"));
+
+    for (int i = 0; i < 5; i++) {
+      assertThat(jwksCache.getPublicKeys(KID1)).hasSize(1);
+    }
+
+    assertThat(jwksCache.indexedKeyCount()).isEqualTo(1);
+    verify(jwkProvider1, times(6)).get(KID1);
+    verify(jwkProvider2).get(KID1);
+    verify(jwkProvider1).getAudience();
+    verify(jwkProvider1).getClaimsVerifier();
+    verify(jwkProvider1).getIssuer();
+    verify(jwkProvider2).getIssuer(); // logging
+  }
+
+  @Test
+  void getPublicKeys_moreKidsThanIndexSize_indexStaysBounded() throws Exception {
+    when(jwkProvider1.getAudience()).thenReturn(AUD1);
+    when(jwk.getPublicKey()).thenReturn(publicKey);
+    when(jwkProvider1.get(anyString())).thenReturn(jwk);
+    when(jwkProvider2.get(anyString())).thenThrow(new JwkException("not found"));
+
+    for (int i = 0; i < 5; i++) {
+      jwksCache.getPublicKeys(KID1 + i);
+    }
+
+    assertThat(jwksCache.indexedKeyCount()).isLessThanOrEqualTo(SETTINGS.getMaxIndexedKeys());
+    for (int i = 0; i < 5; i++) {
+      verify(jwkProvider1, times(2)).get(KID1 + i);
+      verify(jwkProvider2).get(KID1 + i);
+    }
+    verify(jwkProvider1, times(5)).getAudience();
+    verify(jwkProvider1, times(5)).getClaimsVerifier();
+    verify(jwkProvider1, times(5)).getIssuer();
+    verify(jwkProvider2, times(5)).getIssuer(); // logging
+  }
+
+  @Test
+  void getPublicKeys_unknownKidRequestedTwice_providersAskedOnce() throws Exception {
+    when(jwkProvider1.get(anyString())).thenThrow(new JwkException("not found"));
+    when(jwkProvider2.get(anyString())).thenThrow(new JwkException("not found"));
+
+    assertThatExceptionOfType(InsSecurityException.class).isThrownBy(
+        () -> jwksCache.getPublicKeys(KID2));
+    assertThatExceptionOfType(InsSecurityException.class).isThrownBy(
+        () -> jwksCache.getPublicKeys(KID2));
+
+    verify(jwkProvider1).get(KID2);
+    verify(jwkProvider2).get(KID2);
+    verify(jwkProvider1).getIssuer(); // logging
+    verify(jwkProvider2).getIssuer(); // logging
+  }
+
+  @Test
+  void getPublicKeys_anotherUnknownKidWithinRefetchInterval_providersNotAskedAgain()
+      throws Exception {
+    when(jwkProvider1.get(anyString())).thenThrow(new JwkException("not found"));
+    when(jwkProvider2.get(anyString())).thenThrow(new JwkException("not found"));
+
+    assertThatExceptionOfType(InsSecurityException.class).isThrownBy(
+        () -> jwksCache.getPublicKeys(KID2));
+    assertThatExceptionOfType(InsSecurityException.class).isThrownBy(
+        () -> jwksCache.getPublicKeys(KID1));
+
+    verify(jwkProvider1).get(KID2);
+    verify(jwkProvider2).get(KID2);
+    verify(jwkProvider1).getIfPresent(KID1);
+    verify(jwkProvider2).getIfPresent(KID1);
+    verify(jwkProvider1, times(2)).getIssuer(); // logging
+    verify(jwkProvider2, times(2)).getIssuer(); // logging
+  }
+
+  @Test
+  void getPublicKeys_kidCachedByThrottledProvider_foundWithoutFetch() throws Exception {
+    when(jwkProvider1.getAudience()).thenReturn(AUD1);
+    when(jwk.getPublicKey()).thenReturn(publicKey);
+    when(jwkProvider1.get(KID2)).thenThrow(new JwkException("not found"));
+    when(jwkProvider2.get(KID2)).thenThrow(new JwkException("not found"));
+    when(jwkProvider1.getIfPresent(KID1)).thenReturn(jwk);
+    when(jwkProvider1.get(KID1)).thenReturn(jwk);
+
+    assertThatExceptionOfType(InsSecurityException.class).isThrownBy(
+        () -> jwksCache.getPublicKeys(KID2));
+    List<KeyAndClaims> keyAndClaims = jwksCache.getPublicKeys(KID1);
+
+    assertThat(keyAndClaims).singleElement()
+        .extracting(KeyAndClaims::getAud).isEqualTo(AUD1);
+    // the second provider was skipped, so the kid is not indexed
+    assertThat(jwksCache.indexedKeyCount()).isZero();
+    verify(jwkProvider1).get(KID2);
+    verify(jwkProvider2).get(KID2);
+    verify(jwkProvider1).getIfPresent(KID1);
+    verify(jwkProvider2).getIfPresent(KID1);
+    verify(jwkProvider1).get(KID1);
+    verify(jwkProvider1).getAudience();
+    verify(jwkProvider1).getClaimsVerifier();
+    verify(jwkProvider1, times(2)).getIssuer();
+    verify(jwkProvider2, times(2)).getIssuer(); // logging
+  }
+
+  @Test
+  void getPublicKeys_concurrentLookupsOfSameKid_shareOneScan() throws Exception {
+    CountDownLatch scanStarted = new CountDownLatch(1);
+    CountDownLatch releaseScan = new CountDownLatch(1);
+    when(jwkProvider1.getAudience()).thenReturn(AUD1);
+    when(jwk.getPublicKey()).thenReturn(publicKey);
+    when(jwkProvider1.get(KID1)).thenAnswer(invocation -> {
+      scanStarted.countDown();
+      releaseScan.await();
+      return jwk;
+    });
+    when(jwkProvider2.get(KID1)).thenThrow(new JwkException("not found"));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<List<KeyAndClaims>> first = executor.submit(() -> jwksCache.getPublicKeys(KID1));
+      assertThat(scanStarted.await(5, TimeUnit.SECONDS)).isTrue();
+      Future<List<KeyAndClaims>> second = executor.submit(() -> jwksCache.getPublicKeys(KID1));
+      Thread.sleep(100);
+      releaseScan.countDown();
+
+      assertThat(first.get(5, TimeUnit.SECONDS)).hasSize(1);
+      assertThat(second.get(5, TimeUnit.SECONDS)).hasSize(1);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // one scan plus one key fetch per caller, the key being decoded once
+    verify(jwkProvider1, times(3)).get(KID1);
+    verify(jwkProvider2).get(KID1);
+    verify(jwkProvider1).getAudience();
+    verify(jwkProvider1).getClaimsVerifier();
+    verify(jwkProvider1).getIssuer();
+    verify(jwkProvider2).getIssuer(); // logging
+  }
+
+  @Test
+  void getPublicKeys_unknownKid_providersAskedInParallel() throws Exception {
+    CountDownLatch secondProviderAsked = new CountDownLatch(1);
+    when(jwkProvider1.getAudience()).thenReturn(AUD1);
+    when(jwk.getPublicKey()).thenReturn(publicKey);
+    // only returns within the lookup deadline when the second provider is asked concurrently
+    when(jwkProvider1.get(KID1)).thenAnswer(invocation -> {
+      assertThat(secondProviderAsked.await(5, TimeUnit.SECONDS)).isTrue();
+      return jwk;
+    }).thenReturn(jwk);
+    when(jwkProvider2.get(KID1)).thenAnswer(invocation -> {
+      secondProviderAsked.countDown();
+      throw new JwkException("not found");
+    });
+
+    List<KeyAndClaims> keyAndClaims = jwksCache.getPublicKeys(KID1);
+
+    assertThat(keyAndClaims).hasSize(1);
+    assertThat(jwksCache.indexedKeyCount()).isEqualTo(1);
+    verify(jwkProvider1, times(2)).get(KID1);
+    verify(jwkProvider2).get(KID1);
+    verify(jwkProvider1).getAudience();
+    verify(jwkProvider1).getClaimsVerifier();
+    verify(jwkProvider1).getIssuer();
+    verify(jwkProvider2).getIssuer(); // logging
+  }
+
+  @Test
+  void getPublicKeys_providerMissesDeadline_returnsAnsweredProvidersWithoutIndexing()
+      throws Exception {
+    CountDownLatch releaseSlowProvider = new CountDownLatch(1);
+    when(jwkProvider1.getAudience()).thenReturn(AUD1);
+    when(jwk.getPublicKey()).thenReturn(publicKey);
+    when(jwkProvider1.get(KID1)).thenReturn(jwk);
+    when(jwkProvider2.get(KID1)).thenAnswer(invocation -> {
+      releaseSlowProvider.await(10, TimeUnit.SECONDS);
+      throw new JwkException("not found");
+    });
+
+    List<KeyAndClaims> keyAndClaims;
+    try {
+      keyAndClaims = jwksCache.getPublicKeys(KID1);
+    } finally {
+      releaseSlowProvider.countDown();
+    }
+
+    assertThat(keyAndClaims).hasSize(1);
+    assertThat(keyAndClaims.get(0).getAud()).isEqualTo(AUD1);
+    assertThat(jwksCache.indexedKeyCount()).isZero();
+    verify(jwkProvider1, times(2)).get(KID1);
+    verify(jwkProvider2, timeout(5000)).get(KID1);
+    verify(jwkProvider1).getAudience();
+    verify(jwkProvider1).getClaimsVerifier();
+    verify(jwkProvider1).getIssuer();
+    verify(jwkProvider2, timeout(5000)).getIssuer(); // logging
+  }
+
+  @Test
+  void getPublicKeys_singleProviderMissesDeadline_lookupGivesUp() throws Exception {
+    JwkProviderFactory singleProviderFactory = mock();
+    when(singleProviderFactory.newInstance(any())).thenReturn(jwkProvider1);
+    JwksCache singleProviderCache = new JwksCache(
+        List.of(JwksConfiguration.builder().build()),
+        singleProviderFactory,
+        JwksCacheSettings.builder().keyLookupTimeout(Duration.ofMillis(200)).build());
+    CountDownLatch releaseProvider = new CountDownLatch(1);
+    when(jwkProvider1.get(KID1)).thenAnswer(invocation -> {
+      releaseProvider.await(10, TimeUnit.SECONDS);
+      throw new JwkException("not found");
+    });
+
+    long started = System.nanoTime();
+    try {
+      assertThatExceptionOfType(InsSecurityException.class).isThrownBy(
+          () -> singleProviderCache.getPublicKeys(KID1));
+    } finally {
+      releaseProvider.countDown();
+    }
+
+    assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(5));
+    verify(jwkProvider1, timeout(5000)).get(KID1);
+    verify(jwkProvider1, timeout(5000)).getIssuer(); // logging
+  }
+
+  @Test
+  void refreshKeys_refreshesEveryProvider() {
+    jwksCache.refreshKeys();
+
+    verify(jwkProvider1).refresh();
+    verify(jwkProvider2).refresh();
+  }
+
+  @Test
+  void refreshKeys_kidNoLongerPublished_lookupFailsWithoutFetch() throws Exception {
+    when(jwkProvider1.getAudience()).thenReturn(AUD1);
+    when(jwk.getPublicKey()).thenReturn(publicKey);
+    when(jwkProvider1.get(KID1)).thenReturn(jwk);
+    when(jwkProvider2.get(KID1)).thenThrow(new JwkException("not found"));
+    when(jwkProvider1.refresh()).thenReturn(Set.of(KID1));
+    jwksCache.getPublicKeys(KID1);
+
+    jwksCache.refreshKeys();
+
+    assertThatExceptionOfType(InsSecurityException.class).isThrownBy(
+        () -> jwksCache.getPublicKeys(KID1));
+    assertThat(jwksCache.indexedKeyCount()).isZero();
+    verify(jwkProvider1, times(2)).get(KID1);
+    verify(jwkProvider2).get(KID1);
+    verify(jwkProvider1).refresh();
+    verify(jwkProvider2).refresh();
+    verify(jwkProvider1).getAudience();
+    verify(jwkProvider1).getClaimsVerifier();
+    verify(jwkProvider1, times(2)).getIssuer(); // logging
+    verify(jwkProvider2).getIssuer(); // logging
+  }
+
+  @Test
+  void getPublicKeys_indexedKeyDroppedByReload_kidRemovedFromIndex() throws Exception {
+    when(jwkProvider1.getAudience()).thenReturn(AUD1);
+    when(jwk.getPublicKey()).thenReturn(publicKey);
+    when(jwkProvider1.get(KID1))
+        .thenReturn(jwk, jwk)
+        .thenThrow(new SigningKeyNotFoundException("not found", null));
+    when(jwkProvider2.get(KID1)).thenThrow(new JwkException("not found"));
+    jwksCache.getPublicKeys(KID1);
+
+    assertThatExceptionOfType(InsSecurityException.class).isThrownBy(
+        () -> jwksCache.getPublicKeys(KID1));
+    assertThatExceptionOfType(InsSecurityException.class).isThrownBy(
+        () -> jwksCache.getPublicKeys(KID1));
+
+    verify(jwkProvider1, times(3)).get(KID1);
+    verify(jwkProvider2).get(KID1);
+    verify(jwkProvider1).getAudience();
+    verify(jwkProvider1).getClaimsVerifier();
+    verify(jwkProvider1, times(2)).getIssuer(); // logging
+    verify(jwkProvider2).getIssuer(); // logging
+  }
+
+  @Test
+  void getPublicKeys_providerReloadsJwk_keyDecodedAgain() throws Exception {
+    Jwk reloadedJwk = mock(Jwk.class);
+    PublicKey reloadedPublicKey = mock(PublicKey.class);
+    when(jwkProvider1.getAudience()).thenReturn(AUD1);
+    when(jwk.getPublicKey()).thenReturn(publicKey);
+    when(reloadedJwk.getPublicKey()).thenReturn(reloadedPublicKey);
+    when(jwkProvider1.get(KID1)).thenReturn(jwk, jwk, reloadedJwk);
+    when(jwkProvider2.get(KID1)).thenThrow(new JwkException("not found"));
+
+    assertThat(jwksCache.getPublicKeys(KID1).get(0).getKey()).isSameAs(publicKey);
+    assertThat(jwksCache.getPublicKeys(KID1).get(0).getKey()).isSameAs(reloadedPublicKey);
+
+    verify(jwkProvider1, times(3)).get(KID1);
+    verify(jwkProvider2).get(KID1);
+    verify(jwkProvider1, times(2)).getAudience();
+    verify(jwkProvider1, times(2)).getClaimsVerifier();
+    verify(jwkProvider1, times(2)).getIssuer();
+    verify(jwkProvider2).getIssuer(); // logging
+  }
+
+  @Test
+  void getPublicKeys_rsaKey_verifierCreatedOnce() throws Exception {
+    KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+    keyPairGenerator.initialize(2048);
+    PublicKey rsaPublicKey = keyPairGenerator.generateKeyPair().getPublic();
+    when(jwkProvider1.getAudience()).thenReturn(AUD1);
+    when(jwk.getPublicKey()).thenReturn(rsaPublicKey);
+    when(jwkProvider1.get(KID1)).thenReturn(jwk);
+    when(jwkProvider2.get(KID1)).thenThrow(new JwkException("not found"));
+
+    KeyAndClaims first = jwksCache.getPublicKeys(KID1).get(0);
+    KeyAndClaims second = jwksCache.getPublicKeys(KID1).get(0);
+
+    assertThat(first.getVerifier()).isInstanceOf(RSASSAVerifier.class);
+    assertThat(second.getVerifier()).isSameAs(first.getVerifier());
+    verify(jwkProvider1, times(3)).get(KID1);
+    verify(jwkProvider2).get(KID1);
+    verify(jwkProvider1).getAudience();
+    verify(jwkProvider1).getClaimsVerifier();
+    verify(jwkProvider1).getIssuer();
+    verify(jwkProvider2).getIssuer(); // logging
+  }
 }
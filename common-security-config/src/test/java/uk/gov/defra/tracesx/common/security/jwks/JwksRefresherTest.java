@@ -0,0 +1,53 @@
+package uk.gov.defra.tracesx.common.security.jwks;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class JwksRefresherTest {
+
+  @Mock
+  private JwksCache jwksCache;
+
+  private JwksRefresher jwksRefresher;
+
+  @BeforeEach
+  public void setUp() {
+    jwksRefresher = new JwksRefresher(jwksCache);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    jwksRefresher.destroy();
+  }
+
+  @Test
+  void prefetchKeys_refreshesJwksCache() {
+    jwksRefresher.prefetchKeys();
+
+    verify(jwksCache).refreshKeys();
+  }
+
+  @Test
+  void refreshKeys_refreshesJwksCache() {
+    jwksRefresher.refreshKeys();
+
+    verify(jwksCache).refreshKeys();
+  }
+
+  @Test
+  void refreshKeys_whenRefreshFails_doesNotThrow() {
+    doThrow(new IllegalStateException("unreachable")).when(jwksCache).refreshKeys();
+
+    jwksRefresher.refreshKeys();
+
+    verify(jwksCache).refreshKeys();
+  }
+}
@@ -4,7 +4,10 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
@@ -12,6 +15,7 @@ import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
 import java.security.KeyPair;
+import java.security.PublicKey;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.Collections;
@@ -25,6 +29,7 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import uk.gov.defra.tracesx.common.exceptions.JwtAuthenticationException;
 import uk.gov.defra.tracesx.common.security.IdTokenUserDetails;
+import uk.gov.defra.tracesx.common.security.jwks.ClaimsVerifier;
 import uk.gov.defra.tracesx.common.security.jwks.JwksCache;
 import uk.gov.defra.tracesx.common.security.jwks.KeyAndClaims;
 
@@ -82,6 +87,54 @@ class JwtTokenValidatorTest {
     verify(jwtUserMapper).createUser(any(), eq(token));
   }
 
+  @Test
+  void validateToken_calledTwice_tokenVerifiedOnce() throws JwtAuthenticationException {
+    Date exp = Date.from(LocalDateTime.now().plusDays(1).toInstant(ZoneOffset.UTC));
+    String token =
+        Jwts.builder().setHeader(Collections.singletonMap("kid", KID))
+            .setExpiration(exp)
+            .claim("aud", AUD)
+            .claim("iss", ISS)
+            .signWith(KEY_PAIR.getPrivate()).compact();
+    when(jwksCache.getPublicKeys(KID)).thenReturn(keyAndClaims);
+    when(jwtUserMapper.createUser(any(), eq(token))).thenReturn(expectedUserDetails);
+    when(expectedUserDetails.getIdToken()).thenReturn(token);
+
+    assertThat(jwtTokenValidator.validateToken(token)).isEqualTo(expectedUserDetails);
+    assertThat(jwtTokenValidator.validateToken(token)).isEqualTo(expectedUserDetails);
+
+    // the second call only checks that the signing key is still published
+    verify(jwksCache, times(2)).getPublicKeys(KID);
+    verify(jwtUserMapper).createUser(any(), eq(token));
+  }
+
+  @Test
+  void validateToken_signingKeyRotated_tokenVerifiedAgain() throws JwtAuthenticationException {
+    Date exp = Date.from(LocalDateTime.now().plusDays(1).toInstant(ZoneOffset.UTC));
+    String token =
+        Jwts.builder().setHeader(Collections.singletonMap("kid", KID))
+            .setExpiration(exp)
+            .claim("aud", AUD)
+            .claim("iss", ISS)
+            .signWith(KEY_PAIR.getPrivate()).compact();
+    List<KeyAndClaims> rotatedKeys = List.of(
+        KeyAndClaims.builder()
+            .key(ALT_KEY_PAIR.getPublic())
+            .aud(AUD)
+            .iss(ISS)
+            .build());
+    when(jwksCache.getPublicKeys(KID)).thenReturn(keyAndClaims, rotatedKeys, rotatedKeys);
+    when(jwtUserMapper.createUser(any(), eq(token))).thenReturn(expectedUserDetails);
+    when(expectedUserDetails.getIdToken()).thenReturn(token);
+
+    assertThat(jwtTokenValidator.validateToken(token)).isEqualTo(expectedUserDetails);
+    assertThatExceptionOfType(JwtAuthenticationException.class)
+        .isThrownBy(() -> jwtTokenValidator.validateToken(token));
+
+    verify(jwksCache, times(3)).getPublicKeys(KID);
+    verify(jwtUserMapper).createUser(any(), eq(token));
+  }
+
   @Test
   void validateToken_invalid_throwsParseException() throws JwtAuthenticationException {
     String token = "Bearer ";
@@ -96,10 +149,9 @@ class JwtTokenValidatorTest {
             .setPayload("")
             .signWith(KEY_PAIR.getPrivate())
             .compact();
-    when(jwksCache.getPublicKeys(KID)).thenReturn(keyAndClaims);
     assertThatExceptionOfType(JwtAuthenticationException.class)
         .isThrownBy(() -> jwtTokenValidator.validateToken(token));
-    verify(jwksCache).getPublicKeys(KID);
+    // claims that cannot be parsed are rejected before any key is looked up
   }
 
   @Test
@@ -148,10 +200,9 @@ class JwtTokenValidatorTest {
             .claim("aud", AUD)
             .claim("iss", ISS)
             .signWith(KEY_PAIR.getPrivate()).compact();
-    when(jwksCache.getPublicKeys(KID)).thenReturn(keyAndClaims);
     assertThatExceptionOfType(JwtAuthenticationException.class)
         .isThrownBy(() -> jwtTokenValidator.validateToken(token));
-    verify(jwksCache).getPublicKeys(KID);
+    // claims that cannot be parsed are rejected before any key is looked up
   }
 
   @Test
@@ -211,4 +262,56 @@ class JwtTokenValidatorTest {
         .isThrownBy(() -> jwtTokenValidator.validateToken(token));
     verify(jwksCache).getPublicKeys(KID);
   }
+
+  @Test
+  void validateToken_kidPublishedByOtherIssuer_onlyMatchingKeyVerified() {
+    PublicKey otherIssuersKey = mock(PublicKey.class);
+    Date exp = Date.from(LocalDateTime.now().plusDays(1).toInstant(ZoneOffset.UTC));
+    String token =
+        Jwts.builder().setHeader(Collections.singletonMap("kid", KID))
+            .setExpiration(exp)
+            .claim("aud", AUD)
+            .claim("iss", ISS)
+            .signWith(KEY_PAIR.getPrivate()).compact();
+    when(jwksCache.getPublicKeys(KID)).thenReturn(List.of(
+        KeyAndClaims.builder()
+            .key(otherIssuersKey)
+            .aud(AUD)
+            .iss("http://other-issuer.com")
+            .build(),
+        KeyAndClaims.builder()
+            .key(KEY_PAIR.getPublic())
+            .aud(AUD)
+            .iss(ISS)
+            .build()));
+    when(jwtUserMapper.createUser(any(), eq(token))).thenReturn(expectedUserDetails);
+
+    assertThat(jwtTokenValidator.validateToken(token)).isEqualTo(expectedUserDetails);
+
+    verify(jwksCache).getPublicKeys(KID);
+    verify(jwtUserMapper).createUser(any(), eq(token));
+    verifyNoInteractions(otherIssuersKey);
+  }
+
+  @Test
+  void validateToken_noConfigurationForIssuer_throwsException() {
+    Date exp = Date.from(LocalDateTime.now().plusDays(1).toInstant(ZoneOffset.UTC));
+    String token =
+        Jwts.builder().setHeader(Collections.singletonMap("kid", KID))
+            .setExpiration(exp)
+            .claim("aud", AUD)
+            .claim("iss", "http://other-issuer.com")
+            .signWith(KEY_PAIR.getPrivate()).compact();
+    KeyAndClaims keyAndClaim = mock(KeyAndClaims.class);
+    ClaimsVerifier claimsVerifier = new ClaimsVerifier(ISS, AUD);
+    when(keyAndClaim.getClaimsVerifier()).thenReturn(claimsVerifier);
+    when(jwksCache.getPublicKeys(KID)).thenReturn(List.of(keyAndClaim));
+
+    assertThatExceptionOfType(JwtAuthenticationException.class)
+        .isThrownBy(() -> jwtTokenValidator.validateToken(token));
+
+    verify(jwksCache).getPublicKeys(KID);
+    verify(keyAndClaim).getClaimsVerifier();
+    verifyNoMoreInteractions(keyAndClaim);
+  }
 }
@@ -31,6 +31,7 @@ class JwtUserMapperTest {
   private static final List<String> ROLES = Arrays.asList("ROLE1", "ROLE2");
   private static final String ORG_ID = "3199a90f-a670-e911-a974-000d3a28da35";
   private static final String CUSTOMER_ID = "e798a90f-a670-e911-a974-000d3a28da35";
+  private static final String ISSUER = "https://issuer.example.com";
   private static final List<String> ORG_IDS = Arrays.asList(ORG_ID);
   private static final List<GrantedAuthority> AUTHORITIES = Collections.unmodifiableList(
       ROLES.stream().map(OrganisationGrantedAuthority::new).collect(Collectors.toList()));
@@ -49,6 +50,7 @@ class JwtUserMapperTest {
     decoded.put("upn", USERNAME);
     decoded.put("customer_id", CUSTOMER_ID);
     decoded.put("customer_organisation_id", ORG_ID);
+    decoded.put("iss", ISSUER);
   }
 
   @Test
@@ -78,6 +80,7 @@ class JwtUserMapperTest {
         .username(SUB)
         .customerOrganisationId(ORG_ID)
         .customerId(CUSTOMER_ID)
+        .issuer(ISSUER)
         .build();
     assertThat(user).isEqualTo(expected);
   }
@@ -0,0 +1,81 @@
+package uk.gov.defra.tracesx.common.security.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.security.Key;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.defra.tracesx.common.security.IdTokenUserDetails;
+import uk.gov.defra.tracesx.common.security.jwt.VerifiedTokenCache.VerifiedToken;
+
+@ExtendWith(MockitoExtension.class)
+class VerifiedTokenCacheTest {
+
+  private static final String KID = "2759cfa1-6096-4779-b888-983e94e3f6b3";
+  private static final String TOKEN = "header.payload.signature";
+
+  @Mock
+  private Key key;
+
+  @Mock
+  private IdTokenUserDetails userDetails;
+
+  @Test
+  void get_afterPut_returnsVerifiedToken() {
+    VerifiedTokenCache cache = new VerifiedTokenCache(true, 10);
+    when(userDetails.getIdToken()).thenReturn(TOKEN);
+    VerifiedToken verifiedToken = verifiedToken(Instant.now().plusSeconds(60));
+
+    cache.put(TOKEN, verifiedToken);
+
+    assertThat(cache.get(TOKEN)).isSameAs(verifiedToken);
+    assertThat(cache.get("another.token.value")).isNull();
+  }
+
+  @Test
+  void put_tokenAlreadyExpired_isNotCached() {
+    VerifiedTokenCache cache = new VerifiedTokenCache(true, 10);
+
+    cache.put(TOKEN, verifiedToken(Instant.now().minusSeconds(1)));
+
+    assertThat(cache.get(TOKEN)).isNull();
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test
+  void get_tokenExpiresWhileCached_returnsNull() throws Exception {
+    VerifiedTokenCache cache = new VerifiedTokenCache(true, 10);
+
+    cache.put(TOKEN, verifiedToken(Instant.now().plusMillis(50)));
+    Thread.sleep(100);
+
+    assertThat(cache.get(TOKEN)).isNull();
+  }
+
+  @Test
+  void get_disabled_returnsNull() {
+    VerifiedTokenCache cache = new VerifiedTokenCache(false, 10);
+
+    cache.put(TOKEN, verifiedToken(Instant.now().plusSeconds(60)));
+
+    assertThat(cache.get(TOKEN)).isNull();
+  }
+
+  @Test
+  void invalidate_removesEntry() {
+    VerifiedTokenCache cache = new VerifiedTokenCache(true, 10);
+
+    cache.put(TOKEN, verifiedToken(Instant.now().plusSeconds(60)));
+    cache.invalidate(TOKEN);
+
+    assertThat(cache.get(TOKEN)).isNull();
+  }
+
+  private VerifiedToken verifiedToken(Instant expiresAt) {
+    return new VerifiedToken(KID, key, expiresAt, userDetails);
+  }
+}
@@ -0,0 +1,143 @@
+package uk.gov.defra.tracesx.common.security.reactive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import reactor.core.scheduler.Schedulers;
+import uk.gov.defra.tracesx.common.exceptions.JwtAuthenticationException;
+import uk.gov.defra.tracesx.common.exceptions.PermissionsAuthenticationException;
+import uk.gov.defra.tracesx.common.permissions.PermissionsCache;
+import uk.gov.defra.tracesx.common.security.IdTokenAuthentication;
+import uk.gov.defra.tracesx.common.security.IdTokenUserDetails;
+import uk.gov.defra.tracesx.common.security.conversation.id.ConversationContext;
+import uk.gov.defra.tracesx.common.security.conversation.id.ConversationHeadersInterceptor;
+import uk.gov.defra.tracesx.common.security.conversation.id.ConversationStore;
+import uk.gov.defra.tracesx.common.security.jwt.JwtTokenValidator;
+
+@ExtendWith(MockitoExtension.class)
+class IdTokenReactiveAuthenticationManagerTest {
+
+  private static final String TOKEN = "asdf.asdf.asdf";
+  private static final String BEARER_TOKEN = "Bearer " + TOKEN;
+  private static final String ROLE = "ROLE";
+  private static final String PERMISSION = "PERMISSION";
+  private static final String USER_OBJECT_ID = "e9f6447d-2979-4322-8e52-307dafdef649";
+  private static final String CONVERSATION_ID_HEADER = "INS-ConversationId";
+  private static final String CONVERSATION_IP_HEADER = "INS-ConversationIp";
+  private static final String CONVERSATION_ID = "conversation-id";
+  private static final String CONVERSATION_IP = "10.0.0.1";
+
+  @Mock
+  private JwtTokenValidator jwtTokenValidator;
+
+  @Mock
+  private PermissionsCache permissionsCache;
+
+  private IdTokenReactiveAuthenticationManager manager;
+
+  @BeforeEach
+  public void before() {
+    manager = new IdTokenReactiveAuthenticationManager(
+        jwtTokenValidator, permissionsCache, Schedulers.immediate());
+  }
+
+  @Test
+  void authenticate_validTokenWithRoles_authenticatesWithPermissions() {
+    IdTokenUserDetails userDetails = userDetails(ROLE);
+    List<GrantedAuthority> permissions = List.of(new SimpleGrantedAuthority(PERMISSION));
+    when(jwtTokenValidator.validateToken(TOKEN)).thenReturn(userDetails);
+    when(permissionsCache.grantedAuthoritiesAsync(userDetails, List.of(ROLE), BEARER_TOKEN))
+        .thenReturn(CompletableFuture.completedFuture(permissions));
+
+    Authentication authentication = manager.authenticate(bearer()).block();
+
+    assertThat(authentication).isInstanceOf(IdTokenAuthentication.class);
+    assertThat(authentication.isAuthenticated()).isTrue();
+    assertThat(authentication.getPrincipal()).isEqualTo(USER_OBJECT_ID);
+    assertThat(((IdTokenUserDetails) authentication.getDetails()).getAuthorities())
+        .isSameAs(permissions);
+  }
+
+  @Test
+  void authenticate_conversationInContext_permissionsFetchedWithConversationHeaders() {
+    IdTokenUserDetails userDetails = userDetails(ROLE);
+    Map<String, String> headers = new HashMap<>();
+    when(jwtTokenValidator.validateToken(TOKEN)).thenReturn(userDetails);
+    when(permissionsCache.grantedAuthoritiesAsync(userDetails, List.of(ROLE), BEARER_TOKEN))
+        .thenAnswer(invocation -> {
+          ConversationHeadersInterceptor.forEachHeader(headers::put);
+          return CompletableFuture.completedFuture(
+              List.<GrantedAuthority>of(new SimpleGrantedAuthority(PERMISSION)));
+        });
+
+    manager.authenticate(bearer())
+        .contextWrite(context -> context.put(
+            ConversationStore.class, new ConversationStore(CONVERSATION_ID, CONVERSATION_IP)))
+        .block();
+
+    assertThat(headers).containsExactly(
+        entry(CONVERSATION_ID_HEADER, CONVERSATION_ID),
+        entry(CONVERSATION_IP_HEADER, CONVERSATION_IP));
+    assertThat(ConversationContext.current()).isNull();
+  }
+
+  @Test
+  void authenticate_invalidToken_fails() {
+    when(jwtTokenValidator.validateToken(TOKEN))
+        .thenThrow(new JwtAuthenticationException("Unauthorized"));
+
+    assertThatThrownBy(() -> manager.authenticate(bearer()).block())
+        .isInstanceOf(JwtAuthenticationException.class);
+    verifyNoInteractions(permissionsCache);
+  }
+
+  @Test
+  void authenticate_tokenWithoutRoles_fails() {
+    when(jwtTokenValidator.validateToken(TOKEN)).thenReturn(userDetails());
+
+    assertThatThrownBy(() -> manager.authenticate(bearer()).block())
+        .isInstanceOf(PermissionsAuthenticationException.class);
+    verifyNoInteractions(permissionsCache);
+  }
+
+  @Test
+  void authenticate_rolesWithoutPermissions_fails() {
+    IdTokenUserDetails userDetails = userDetails(ROLE);
+    when(jwtTokenValidator.validateToken(TOKEN)).thenReturn(userDetails);
+    when(permissionsCache.grantedAuthoritiesAsync(userDetails, List.of(ROLE), BEARER_TOKEN))
+        .thenReturn(CompletableFuture.completedFuture(List.of()));
+
+    assertThatThrownBy(() -> manager.authenticate(bearer()).block())
+        .isInstanceOf(PermissionsAuthenticationException.class);
+  }
+
+  private static Authentication bearer() {
+    return new PreAuthenticatedAuthenticationToken(TOKEN, BEARER_TOKEN);
+  }
+
+  private static IdTokenUserDetails userDetails(String... roles) {
+    return IdTokenUserDetails.builder()
+        .idToken(TOKEN)
+        .userObjectId(USER_OBJECT_ID)
+        .authorities(List.of(roles).stream()
+            .<GrantedAuthority>map(SimpleGrantedAuthority::new)
+            .toList())
+        .build();
+  }
+}
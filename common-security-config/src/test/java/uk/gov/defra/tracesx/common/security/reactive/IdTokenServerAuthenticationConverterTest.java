@@ -0,0 +1,54 @@
+package uk.gov.defra.tracesx.common.security.reactive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
+import org.springframework.security.core.Authentication;
+
+class IdTokenServerAuthenticationConverterTest {
+
+  private static final String TOKEN = "asdf.asdf.asdf";
+
+  private final IdTokenServerAuthenticationConverter converter =
+      new IdTokenServerAuthenticationConverter();
+
+  @Test
+  void convert_bearerToken_tokenIsThePrincipal() {
+    Authentication authentication = converter.convert(exchange("Bearer " + TOKEN)).block();
+
+    assertThat(authentication.getPrincipal()).isEqualTo(TOKEN);
+    assertThat(authentication.getCredentials()).isEqualTo("Bearer " + TOKEN);
+    assertThat(authentication.isAuthenticated()).isFalse();
+  }
+
+  @Test
+  void convert_lowercaseAuthorizationType_tokenIsThePrincipal() {
+    Authentication authentication = converter.convert(exchange("bearer " + TOKEN)).block();
+
+    assertThat(authentication.getPrincipal()).isEqualTo(TOKEN);
+  }
+
+  @Test
+  void convert_otherAuthorizationType_fails() {
+    assertThatThrownBy(() -> converter.convert(exchange("Basic " + TOKEN)).block())
+        .isInstanceOf(AuthenticationCredentialsNotFoundException.class);
+  }
+
+  @Test
+  void convert_noAuthorizationHeader_fails() {
+    MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/"));
+
+    assertThatThrownBy(() -> converter.convert(exchange).block())
+        .isInstanceOf(AuthenticationCredentialsNotFoundException.class);
+  }
+
+  private static MockServerWebExchange exchange(String authorization) {
+    return MockServerWebExchange.from(
+        MockServerHttpRequest.get("/").header(HttpHeaders.AUTHORIZATION, authorization));
+  }
+}
@@ -0,0 +1,142 @@
+package uk.gov.defra.tracesx.common.security.reactive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ReactiveWebApplicationContextRunner;
+import org.springframework.boot.test.context.runner.WebApplicationContextRunner;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.WebFilterChainProxy;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import uk.gov.defra.tracesx.common.permissions.PermissionsCache;
+import uk.gov.defra.tracesx.common.security.IdTokenUserDetails;
+import uk.gov.defra.tracesx.common.security.conversation.id.ConversationStore;
+import uk.gov.defra.tracesx.common.security.conversation.id.ConversationWebFilter;
+import uk.gov.defra.tracesx.common.security.jwt.JwtTokenValidator;
+
+class ReactiveWebSecurityConfigurationTest {
+
+  private static final String TOKEN = "asdf.asdf.asdf";
+  private static final String BEARER_TOKEN = "Bearer " + TOKEN;
+  private static final String ROLE = "ROLE";
+  private static final String PERMISSION = "PERMISSION";
+  private static final String CONVERSATION_ID = "conversation";
+  private static final String USER_OBJECT_ID = "e9f6447d-2979-4322-8e52-307dafdef649";
+
+  private final JwtTokenValidator jwtTokenValidator = mock(JwtTokenValidator.class);
+  private final PermissionsCache permissionsCache = mock(PermissionsCache.class);
+
+  @Test
+  void reactiveApplication_serviceRequestsAuthenticatedWithPermissions() {
+    IdTokenUserDetails userDetails = IdTokenUserDetails.builder()
+        .idToken(TOKEN)
+        .userObjectId(USER_OBJECT_ID)
+        .authorities(List.of(new SimpleGrantedAuthority(ROLE)))
+        .build();
+    List<GrantedAuthority> permissions = List.of(new SimpleGrantedAuthority(PERMISSION));
+    when(jwtTokenValidator.validateToken(TOKEN)).thenReturn(userDetails);
+    when(permissionsCache.grantedAuthoritiesAsync(userDetails, List.of(ROLE), BEARER_TOKEN))
+        .thenReturn(CompletableFuture.completedFuture(permissions));
+
+    new ReactiveWebApplicationContextRunner()
+        .withUserConfiguration(ReactiveWebSecurityConfiguration.class)
+        .withBean(JwtTokenValidator.class, () -> jwtTokenValidator)
+        .withBean(PermissionsCache.class, () -> permissionsCache)
+        .run(context -> {
+          assertThat(context).hasNotFailed();
+          assertThat(context.getBeansOfType(SecurityWebFilterChain.class)).hasSize(2);
+          WebTestClient client = webTestClient(context);
+
+          client.get().uri("/service").exchange()
+              .expectStatus().isUnauthorized();
+          client.get().uri("/").exchange()
+              .expectStatus().isOk();
+          client.get().uri("/service").header(HttpHeaders.AUTHORIZATION, BEARER_TOKEN).exchange()
+              .expectStatus().isOk()
+              .expectBody(String.class).isEqualTo(USER_OBJECT_ID + " " + PERMISSION);
+        });
+  }
+
+  @Test
+  void reactiveApplication_publicRequestsCarryConversation() {
+    new ReactiveWebApplicationContextRunner()
+        .withUserConfiguration(ReactiveWebSecurityConfiguration.class)
+        .withBean(JwtTokenValidator.class, () -> jwtTokenValidator)
+        .withBean(PermissionsCache.class, () -> permissionsCache)
+        .run(context -> webTestClient(context).get().uri("/")
+            .header("INS-ConversationId", CONVERSATION_ID).exchange()
+            .expectStatus().isOk()
+            .expectBody(String.class).isEqualTo(CONVERSATION_ID));
+  }
+
+  @Test
+  void reactiveApplication_publicPathsConfigured() {
+    new ReactiveWebApplicationContextRunner()
+        .withUserConfiguration(ReactiveWebSecurityConfiguration.class)
+        .withBean(JwtTokenValidator.class, () -> jwtTokenValidator)
+        .withBean(PermissionsCache.class, () -> permissionsCache)
+        .withPropertyValues("spring.security.publicPaths=/service")
+        .run(context -> {
+          WebTestClient client = webTestClient(context);
+
+          client.get().uri("/service").exchange()
+              .expectStatus().isOk();
+          client.get().uri("/").exchange()
+              .expectStatus().isUnauthorized();
+        });
+  }
+
+  @Test
+  void servletApplication_notConfigured() {
+    new WebApplicationContextRunner()
+        .withUserConfiguration(ReactiveWebSecurityConfiguration.class)
+        .run(context -> assertThat(context)
+            .hasNotFailed()
+            .doesNotHaveBean(ReactiveWebSecurityConfiguration.class)
+            .doesNotHaveBean(SecurityWebFilterChain.class));
+  }
+
+  private static WebTestClient webTestClient(ApplicationContext context) {
+    return WebTestClient.bindToController(new TestController())
+        .webFilter(context.getBean(WebFilterChainProxy.class))
+        .build();
+  }
+
+  @RestController
+  static class TestController {
+
+    @GetMapping("/")
+    Mono<String> root() {
+      return ConversationWebFilter.conversation()
+          .mapNotNull(ConversationStore::getConversationId)
+          .defaultIfEmpty("ok");
+    }
+
+    @GetMapping("/service")
+    Mono<String> service() {
+      return ReactiveSecurityContextHolder.getContext()
+          .map(SecurityContext::getAuthentication)
+          .map(TestController::describe)
+          .defaultIfEmpty("anonymous");
+    }
+
+    private static String describe(Authentication authentication) {
+      return authentication.getPrincipal() + " "
+          + authentication.getAuthorities().iterator().next().getAuthority();
+    }
+  }
+}